@@ -0,0 +1,64 @@
+package app;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * EvaluateBenchmark measures running compiled formulas. Deep formulas nest
+ * every operation inside the next, so the operand stack grows with their
+ * size; wide formulas add up many cells side by side.
+ *
+ * @author Mark Malyshev
+ * @author Yusuf Shakhpaz
+ * @author Georgia Karwhite
+ * @version June 2, 2025
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class EvaluateBenchmark {
+    /**
+     * The shape of the formula, deep or wide
+     */
+    @Param({ "deep", "wide" })
+    public String shape;
+
+    /**
+     * The number of cells the formula reads
+     */
+    @Param({ "8", "64", "512" })
+    public int size;
+
+    private Spreadsheet spreadsheet;
+    private ExpressionTree tree;
+
+    @Setup
+    public void setUp() {
+        spreadsheet = new Spreadsheet(size + 1, 2);
+        for (int row = 0; row < size; row++) {
+            spreadsheet.setCellFormula(row, 0, Integer.toString(row + 1));
+        }
+        String formula = shape.equals("deep") ? Workloads.deepFormula(size) : Workloads.wideFormula(size);
+        spreadsheet.setCellFormula(0, 1, formula);
+        tree = spreadsheet.getCell(0, 1).getExpressionTree();
+    }
+
+    @Benchmark
+    public int evaluate() {
+        return tree.evaluate(spreadsheet);
+    }
+}
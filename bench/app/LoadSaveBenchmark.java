@@ -0,0 +1,94 @@
+package app;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * LoadSaveBenchmark measures saving and loading whole sheets in the text
+ * format and as binary snapshots. Half of the cells hold values and the
+ * other half formulas filled down a column.
+ *
+ * @author Mark Malyshev
+ * @author Yusuf Shakhpaz
+ * @author Georgia Karwhite
+ * @version June 2, 2025
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class LoadSaveBenchmark {
+    /**
+     * The number of written cells in the sheet
+     */
+    @Param({ "10000", "100000", "1000000" })
+    public int cells;
+
+    private Spreadsheet spreadsheet;
+    private Path directory;
+    private Path text;
+    private Path snapshot;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        int rows = cells / 2;
+        spreadsheet = new Spreadsheet(rows, 2);
+        spreadsheet.beginBatch();
+        for (int row = 0; row < rows; row++) {
+            spreadsheet.setCellFormula(row, 0, Integer.toString(row));
+            spreadsheet.setCellFormula(row, 1, row == 0 ? "A1" : "A" + (row + 1) + "+B" + row);
+        }
+        spreadsheet.commitBatch();
+
+        directory = Files.createTempDirectory("spreadsheet-bench");
+        text = directory.resolve("sheet.txt");
+        snapshot = directory.resolve("sheet.snapshot");
+        spreadsheet.save(text);
+        spreadsheet.saveSnapshot(snapshot);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(text);
+        Files.deleteIfExists(snapshot);
+        Files.deleteIfExists(directory);
+    }
+
+    @Benchmark
+    public void saveText() throws IOException {
+        spreadsheet.save(text);
+    }
+
+    @Benchmark
+    public Spreadsheet loadText() throws IOException {
+        return Spreadsheet.load(text);
+    }
+
+    @Benchmark
+    public void saveSnapshot() throws IOException {
+        spreadsheet.saveSnapshot(snapshot);
+    }
+
+    @Benchmark
+    public Spreadsheet loadSnapshot() throws IOException {
+        return Spreadsheet.loadSnapshot(snapshot);
+    }
+}
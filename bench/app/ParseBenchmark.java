@@ -0,0 +1,68 @@
+package app;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * ParseBenchmark measures turning formula text into compiled code, both
+ * straight through the lexer and parser and through stageFormula, which
+ * also goes through the formula cache and the dependency graph.
+ *
+ * @author Mark Malyshev
+ * @author Yusuf Shakhpaz
+ * @author Georgia Karwhite
+ * @version June 2, 2025
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ParseBenchmark {
+    /**
+     * The number of operands in the formula
+     */
+    @Param({ "4", "32", "256" })
+    public int terms;
+
+    private String formula;
+    private FormulaLexer lexer;
+    private FormulaParser parser;
+    private Spreadsheet spreadsheet;
+    private int row;
+
+    @Setup
+    public void setUp() {
+        formula = Workloads.mixedFormula(terms);
+        lexer = new FormulaLexer();
+        parser = new FormulaParser();
+        spreadsheet = new Spreadsheet(1000, 100);
+    }
+
+    @Benchmark
+    public ExpressionTree compile() {
+        lexer.tokenize(formula);
+        return parser.parse(lexer);
+    }
+
+    @Benchmark
+    public int stageFormula() {
+        // The references are absolute, so each of the 500 rows has its own
+        // relative key. Once the first pass has cached all 500, every call
+        // is a cache hit.
+        row = (row + 1) % 500;
+        return spreadsheet.stageFormula(row, 99, formula);
+    }
+}
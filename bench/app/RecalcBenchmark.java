@@ -0,0 +1,77 @@
+package app;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * RecalcBenchmark measures a single edit through setCellFormula, including
+ * recalculating its dependents. Every row of the sheet holds a value and a
+ * formula reading it, a chain of formulas hangs off the first cell, and the
+ * whole value column is summed by one formula.
+ *
+ * @author Mark Malyshev
+ * @author Yusuf Shakhpaz
+ * @author Georgia Karwhite
+ * @version June 2, 2025
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RecalcBenchmark {
+    /**
+     * The number of rows in the sheet
+     */
+    @Param({ "1000", "10000", "100000" })
+    public int rows;
+
+    /**
+     * The number of formulas in the chain that depends on the first cell
+     */
+    @Param({ "1", "100", "1000" })
+    public int depth;
+
+    private Spreadsheet spreadsheet;
+    private int tick;
+
+    @Setup
+    public void setUp() {
+        spreadsheet = new Spreadsheet(rows, 4);
+        spreadsheet.beginBatch();
+        for (int row = 0; row < rows; row++) {
+            spreadsheet.setCellFormula(row, 0, Integer.toString(row));
+            spreadsheet.setCellFormula(row, 1, "A" + (row + 1) + "*2");
+        }
+        spreadsheet.setCellFormula(0, 2, "A1+1");
+        for (int row = 1; row < depth; row++) {
+            spreadsheet.setCellFormula(row, 2, "C" + row + "+1");
+        }
+        spreadsheet.setCellFormula(0, 3, "SUM(A1:A" + rows + ")");
+        spreadsheet.commitBatch();
+    }
+
+    @Benchmark
+    public int editChainHead() {
+        spreadsheet.setCellFormula(0, 0, Integer.toString(++tick & 1023));
+        return spreadsheet.getCellValue(depth - 1, 2);
+    }
+
+    @Benchmark
+    public int editInsideSum() {
+        spreadsheet.setCellFormula(rows / 2, 0, Integer.toString(++tick & 1023));
+        return spreadsheet.getCellValue(0, 3);
+    }
+}
@@ -0,0 +1,74 @@
+package app;
+
+/**
+ * Workloads builds the formulas used by the benchmarks.
+ *
+ * @author Mark Malyshev
+ * @author Yusuf Shakhpaz
+ * @author Georgia Karwhite
+ * @version June 2, 2025
+ */
+final class Workloads {
+    private static final char[] Operators = { '+', '-', '*', '/' };
+
+    private Workloads() {
+    }
+
+    /**
+     * Builds a formula mixing cell references, numbers, all four operators
+     * and parentheses
+     * @param terms the number of operands
+     * @return the formula
+     */
+    static String mixedFormula(int terms) {
+        StringBuilder formula = new StringBuilder();
+        for (int i = 0; i < terms; i++) {
+            if (i > 0) {
+                formula.append(' ').append(Operators[i % Operators.length]).append(' ');
+            }
+            if (i % 8 == 0) {
+                formula.append('(');
+            }
+            if (i % 2 == 0) {
+                formula.append(columnName(i % 26)).append(i / 26 + 1);
+            } else {
+                formula.append(i * 7);
+            }
+            if (i % 8 == 7 || i == terms - 1) {
+                formula.append(')');
+            }
+        }
+        return formula.toString();
+    }
+
+    /**
+     * Builds a formula where each operation is nested inside the next, such
+     * as A1+(A2*(A3+A4))
+     * @param size the number of cells read, from column A
+     * @return the formula
+     */
+    static String deepFormula(int size) {
+        String formula = "A" + size;
+        for (int row = size - 1; row >= 1; row--) {
+            formula = "A" + row + (row % 2 == 0 ? "*" : "+") + "(" + formula + ")";
+        }
+        return formula;
+    }
+
+    /**
+     * Builds a formula adding many cells side by side, such as A1+A2+A3
+     * @param size the number of cells read, from column A
+     * @return the formula
+     */
+    static String wideFormula(int size) {
+        StringBuilder formula = new StringBuilder("A1");
+        for (int row = 2; row <= size; row++) {
+            formula.append("+A").append(row);
+        }
+        return formula.toString();
+    }
+
+    private static String columnName(int column) {
+        return String.valueOf((char) ('A' + column));
+    }
+}
@@ -27,6 +27,17 @@ public class Cell {
      */
     private ExpressionTree expressionTree; // Add this field
 
+    /**
+     * Whether the cell's formula is part of, or depends on, a circular reference
+     */
+    private boolean circular;
+
+    /**
+     * The text the table shows for this cell, or null if it has to be
+     * formatted again because the cell changed since it was last shown
+     */
+    private String displayText;
+
     /**
      * Constructor for a spreadsheet cell, with default values
      */
@@ -50,7 +61,7 @@ public class Cell {
      * @return the value of the cell
      */
     public int getValue() {
-        return value;
+        return loadValue();
     }
 
     /**
@@ -61,12 +72,69 @@ public class Cell {
         return expressionTree;
     }
 
+    /**
+     * Checks if the cell is in the circular reference error state
+     * @return true if the cell's formula is on or behind a cycle of references
+     */
+    public boolean isCircular() {
+        return circular;
+    }
+
+    /**
+     * Sets whether the cell is in the circular reference error state
+     * @param circular true if the cell's formula is on or behind a cycle of references
+     */
+    public void setCircular(boolean circular) {
+        if (this.circular != circular) {
+            this.circular = circular;
+            displayText = null;
+        }
+    }
+
+    /**
+     * Gets the text to show for this cell. The text is formatted once and
+     * reused until the cell's formula, value or error state changes.
+     * @return the value of the cell as text, an error message, or an empty
+     *         String if the cell has no formula
+     */
+    public String getDisplayText() {
+        if (displayText == null) {
+            if (formula.isEmpty()) {
+                displayText = "";
+            } else if (circular) {
+                displayText = "ERROR: CIRCULAR";
+            } else {
+                displayText = String.valueOf(loadValue());
+            }
+        }
+        return displayText;
+    }
+
     /**
      * Sets the value of the cell
      * @param value the new int value for the cell to hold
      */
     public void setValue(int value) {
+        if (loadValue() != value) {
+            storeValue(value);
+            displayText = null;
+        }
+    }
+
+    /**
+     * Reads the value of the cell from wherever it is kept. Subclasses that
+     * keep values outside of the cell override this with storeValue.
+     * @return the value of the cell
+     */
+    int loadValue() {
+        return value;
+    }
 
+    /**
+     * Writes the value of the cell to wherever it is kept
+     * @param value the new value
+     */
+    void storeValue(int value) {
         this.value = value;
     }
 
@@ -76,6 +144,7 @@ public class Cell {
      */
     public void setFormula(String formula) {
         this.formula = formula;
+        displayText = null;
     }
 
     /**
@@ -92,11 +161,22 @@ public class Cell {
      * @return int value of the cell
      */
     public int evaluate(Spreadsheet spreadsheet) {
-        if (expressionTree != null) {
-            this.value = expressionTree.evaluate(spreadsheet);
-            System.out.println("Evaluated formula '" + formula + "' = " + value);
+        if (expressionTree != null && !circular) {
+            setValue(expressionTree.evaluate(spreadsheet));
+        }
+        return loadValue();
+    }
+
+    /**
+     * Evaluates the expression in the cell using the given operand stack, so
+     * that several cells can be evaluated on different threads at once
+     * @param spreadsheet the spreadsheet in which this cell belongs
+     * @param stack an operand stack with room for the expression's operands
+     */
+    void evaluate(Spreadsheet spreadsheet, int[] stack) {
+        if (expressionTree != null && !circular) {
+            setValue(expressionTree.evaluate(spreadsheet, stack));
         }
-        return this.value;
     }
 
     /**
@@ -104,18 +184,22 @@ public class Cell {
      */
     public void clear() {
         formula = "";
-        value = 0;
+        storeValue(0);
+        expressionTree = null;
+        circular = false;
+        displayText = null;
     }
 
     /**
      * Gets a list of the cells used in the calculation of this cell's value
+     * @param spreadsheet the spreadsheet in which this cell belongs
      * @return a list of the depencies of this cell's value
      */
-    public LinkedList<Cell> getCellDependencies() {
+    public LinkedList<Cell> getCellDependencies(Spreadsheet spreadsheet) {
         if (expressionTree == null) {
             return new LinkedList<Cell>();
         } else {
-            return expressionTree.getCellDependencies();
+            return expressionTree.getCellDependencies(spreadsheet);
         }
     }
 }
@@ -0,0 +1,81 @@
+package app;
+
+/**
+ * CellChangeEvent lists the cells whose formula, value or error state changed
+ * during one edit of a Spreadsheet, including the edited cell itself.
+ *
+ * @author Mark Malyshev
+ * @author Yusuf Shakhpaz
+ * @author Georgia Karwhite
+ * @version June 2, 2025
+ */
+public class CellChangeEvent {
+    /**
+     * The row of each changed cell
+     */
+    private final int[] rows;
+
+    /**
+     * The column of each changed cell
+     */
+    private final int[] columns;
+
+    /**
+     * The number of changed cells
+     */
+    private final int count;
+
+    /**
+     * Whether every cell in the spreadsheet may have changed
+     */
+    private final boolean allCells;
+
+    /**
+     * Creates an event for the given cells
+     * @param rows the row of each changed cell
+     * @param columns the column of each changed cell
+     * @param count the number of changed cells
+     * @param allCells true if every cell may have changed, in which case the
+     *                 listed cells are not the whole story
+     */
+    CellChangeEvent(int[] rows, int[] columns, int count, boolean allCells) {
+        this.rows = rows;
+        this.columns = columns;
+        this.count = count;
+        this.allCells = allCells;
+    }
+
+    /**
+     * Gets the number of changed cells listed in this event
+     * @return the number of changed cells
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Gets the row of a changed cell
+     * @param index which changed cell, from 0 to getCount() - 1
+     * @return the row index of the cell
+     */
+    public int getRow(int index) {
+        return rows[index];
+    }
+
+    /**
+     * Gets the column of a changed cell
+     * @param index which changed cell, from 0 to getCount() - 1
+     * @return the column index of the cell
+     */
+    public int getColumn(int index) {
+        return columns[index];
+    }
+
+    /**
+     * Checks if the whole spreadsheet changed, for example after it was cleared
+     * @return true if any cell may have changed
+     */
+    public boolean isAllCells() {
+        return allCells;
+    }
+}
@@ -0,0 +1,44 @@
+package app;
+
+/**
+ * CellKey packs a row and column into a single long so that cell coordinates
+ * can be used as primitive map keys.
+ *
+ * @author Mark Malyshev
+ * @author Yusuf Shakhpaz
+ * @author Georgia Karwhite
+ * @version June 2, 2025
+ */
+final class CellKey {
+
+    private CellKey() {
+    }
+
+    /**
+     * Packs the given coordinate into a key
+     * @param row the row index of the cell
+     * @param col the column index of the cell
+     * @return the key for the coordinate
+     */
+    static long of(int row, int col) {
+        return ((long) row << 32) | (col & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Gets the row of a packed key
+     * @param key the key of the cell
+     * @return the row index of the cell
+     */
+    static int row(long key) {
+        return (int) (key >>> 32);
+    }
+
+    /**
+     * Gets the column of a packed key
+     * @param key the key of the cell
+     * @return the column index of the cell
+     */
+    static int column(long key) {
+        return (int) key;
+    }
+}
@@ -0,0 +1,83 @@
+package app;
+
+import java.util.Arrays;
+
+/**
+ * ChangeBuffer collects the cells that change while an edit is applied, so
+ * they can be handed to listeners as one CellChangeEvent.
+ *
+ * @author Mark Malyshev
+ * @author Yusuf Shakhpaz
+ * @author Georgia Karwhite
+ * @version June 2, 2025
+ */
+final class ChangeBuffer {
+    private int[] rows = new int[16];
+    private int[] columns = new int[16];
+    private int count;
+    private boolean allCells;
+
+    /**
+     * Records that a cell changed
+     * @param row the row index of the cell
+     * @param col the column index of the cell
+     */
+    void add(int row, int col) {
+        if (allCells) {
+            return;
+        }
+        if (count == rows.length) {
+            rows = Arrays.copyOf(rows, count * 2);
+            columns = Arrays.copyOf(columns, count * 2);
+        }
+        rows[count] = row;
+        columns[count] = col;
+        count++;
+    }
+
+    /**
+     * Records that any cell may have changed
+     */
+    void addAll() {
+        allCells = true;
+        count = 0;
+    }
+
+    /**
+     * Checks if no change has been recorded
+     * @return true if there is nothing to report
+     */
+    boolean isEmpty() {
+        return count == 0 && !allCells;
+    }
+
+    /**
+     * Creates an event with the recorded changes and empties the buffer. A
+     * cell recorded more than once is only listed once in the event.
+     * @return an event listing the recorded changes
+     */
+    CellChangeEvent drain() {
+        long[] keys = new long[count];
+        for (int i = 0; i < count; i++) {
+            keys[i] = CellKey.of(rows[i], columns[i]);
+        }
+        Arrays.sort(keys);
+        int distinct = 0;
+        for (int i = 0; i < count; i++) {
+            if (distinct == 0 || keys[i] != keys[distinct - 1]) {
+                keys[distinct++] = keys[i];
+            }
+        }
+
+        int[] changedRows = new int[distinct];
+        int[] changedColumns = new int[distinct];
+        for (int i = 0; i < distinct; i++) {
+            changedRows[i] = CellKey.row(keys[i]);
+            changedColumns[i] = CellKey.column(keys[i]);
+        }
+        CellChangeEvent event = new CellChangeEvent(changedRows, changedColumns, distinct, allCells);
+        count = 0;
+        allCells = false;
+        return event;
+    }
+}
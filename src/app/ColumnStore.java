@@ -0,0 +1,180 @@
+package app;
+
+/**
+ * ColumnStore keeps cell values in primitive int arrays, one column at a
+ * time. Each column is split into fixed-size chunks of consecutive rows that
+ * are only allocated once a value in them is written, so sparse sheets stay
+ * small while reading down a column walks contiguous memory. Alongside each
+ * chunk of values is a bitmap of the cells that have been written, which is
+ * all a cell holding a plain number needs.
+ *
+ * @author Mark Malyshev
+ * @author Yusuf Shakhpaz
+ * @author Georgia Karwhite
+ * @version June 2, 2025
+ */
+final class ColumnStore {
+    /**
+     * The number of bits of a row index that select a slot within a chunk
+     */
+    static final int ChunkBits = 12;
+
+    /**
+     * The number of rows in each chunk
+     */
+    static final int ChunkSize = 1 << ChunkBits;
+
+    /**
+     * The number of chunks each column is split into
+     */
+    private final int chunksPerColumn;
+
+    /**
+     * The chunks of each column, indexed by column then chunk. Columns and
+     * chunks that were never written are null and read as 0.
+     */
+    private int[][][] columns;
+
+    /**
+     * The written bitmaps of the chunks, 64 rows to a long, laid out like
+     * columns and allocated with the chunk they belong to
+     */
+    private long[][][] written;
+
+    /**
+     * Creates an empty store for a spreadsheet of the given size
+     * @param rows the number of rows in the spreadsheet
+     * @param cols the number of columns in the spreadsheet
+     */
+    ColumnStore(int rows, int cols) {
+        chunksPerColumn = (rows + ChunkSize - 1) >>> ChunkBits;
+        columns = new int[cols][][];
+        written = new long[cols][][];
+    }
+
+    /**
+     * Gets the value of a cell
+     * @param row the row index of the cell
+     * @param col the column index of the cell
+     * @return the value of the cell, or 0 if it was never written
+     */
+    int get(int row, int col) {
+        int[][] column = columns[col];
+        if (column == null) {
+            return 0;
+        }
+        int[] chunk = column[row >>> ChunkBits];
+        return chunk == null ? 0 : chunk[row & (ChunkSize - 1)];
+    }
+
+    /**
+     * Sets the value of a cell
+     * @param row the row index of the cell
+     * @param col the column index of the cell
+     * @param value the new value
+     */
+    void set(int row, int col, int value) {
+        int[][] column = columns[col];
+        int[] chunk = column == null ? null : column[row >>> ChunkBits];
+        if (chunk == null) {
+            if (value == 0) {
+                return;
+            }
+            chunk = allocate(row, col);
+        }
+        chunk[row & (ChunkSize - 1)] = value;
+    }
+
+    /**
+     * Checks if a cell has been written, that is, has a formula or number
+     * @param row the row index of the cell
+     * @param col the column index of the cell
+     * @return true if the cell has been marked written
+     */
+    boolean isWritten(int row, int col) {
+        long[][] column = written[col];
+        if (column == null) {
+            return false;
+        }
+        long[] bits = column[row >>> ChunkBits];
+        return bits != null && (bits[(row & (ChunkSize - 1)) >>> 6] & (1L << row)) != 0;
+    }
+
+    /**
+     * Marks whether a cell has been written
+     * @param row the row index of the cell
+     * @param col the column index of the cell
+     * @param isWritten true if the cell has a formula or number
+     */
+    void setWritten(int row, int col, boolean isWritten) {
+        long[][] column = written[col];
+        long[] bits = column == null ? null : column[row >>> ChunkBits];
+        if (bits == null) {
+            if (!isWritten) {
+                return;
+            }
+            allocate(row, col);
+            bits = written[col][row >>> ChunkBits];
+        }
+        int word = (row & (ChunkSize - 1)) >>> 6;
+        if (isWritten) {
+            bits[word] |= 1L << row;
+        } else {
+            bits[word] &= ~(1L << row);
+        }
+    }
+
+    /**
+     * Allocates the chunk holding a cell. This is synchronized because
+     * parallel recalculation can write to cells of the same chunk at once.
+     * @param row the row index of the cell
+     * @param col the column index of the cell
+     * @return the chunk holding the cell
+     */
+    private synchronized int[] allocate(int row, int col) {
+        int[][] column = columns[col];
+        if (column == null) {
+            column = new int[chunksPerColumn][];
+            written[col] = new long[chunksPerColumn][];
+            columns[col] = column;
+        }
+        int[] chunk = column[row >>> ChunkBits];
+        if (chunk == null) {
+            chunk = new int[ChunkSize];
+            written[col][row >>> ChunkBits] = new long[ChunkSize / 64];
+            column[row >>> ChunkBits] = chunk;
+        }
+        return chunk;
+    }
+
+    /**
+     * Gets one chunk of a column, for reading a run of rows directly
+     * @param col the column index
+     * @param chunkIndex which chunk, the row index shifted right by ChunkBits
+     * @return the chunk, or null if no value in it was ever written
+     */
+    int[] chunk(int col, int chunkIndex) {
+        int[][] column = columns[col];
+        return column == null ? null : column[chunkIndex];
+    }
+
+    /**
+     * Gets the written bitmap of one chunk of a column
+     * @param col the column index
+     * @param chunkIndex which chunk, the row index shifted right by ChunkBits
+     * @return the bitmap, 64 rows to a long, or null if the chunk was never
+     *         allocated
+     */
+    long[] writtenChunk(int col, int chunkIndex) {
+        long[][] column = written[col];
+        return column == null ? null : column[chunkIndex];
+    }
+
+    /**
+     * Sets every value back to 0 and releases the chunks
+     */
+    void clear() {
+        columns = new int[columns.length][][];
+        written = new long[columns.length][][];
+    }
+}
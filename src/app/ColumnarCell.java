@@ -0,0 +1,49 @@
+package app;
+
+/**
+ * ColumnarCell is a Cell whose value is kept in a ColumnStore rather than in
+ * the cell itself. It is used by spreadsheets created with columnar values.
+ *
+ * @author Mark Malyshev
+ * @author Yusuf Shakhpaz
+ * @author Georgia Karwhite
+ * @version June 2, 2025
+ */
+final class ColumnarCell extends Cell {
+    /**
+     * The store holding the value of this cell
+     */
+    private final ColumnStore store;
+
+    /**
+     * The row index of this cell
+     */
+    private final int row;
+
+    /**
+     * The column index of this cell
+     */
+    private final int col;
+
+    /**
+     * Creates a view of a cell in the given store
+     * @param store the store holding the value
+     * @param row the row index of the cell
+     * @param col the column index of the cell
+     */
+    ColumnarCell(ColumnStore store, int row, int col) {
+        this.store = store;
+        this.row = row;
+        this.col = col;
+    }
+
+    @Override
+    int loadValue() {
+        return store.get(row, col);
+    }
+
+    @Override
+    void storeValue(int value) {
+        store.set(row, col, value);
+    }
+}
@@ -0,0 +1,486 @@
+package app;
+
+import java.util.Arrays;
+
+/**
+ * DependencyGraph keeps track of which cells each formula reads from and,
+ * in reverse, which formulas read from each cell. Cells are given small int
+ * node ids and both directions of the graph are stored as int arrays, so
+ * queries and edits only cost as much as the number of edges involved. A
+ * range read by an aggregate function is kept as a single edge from the
+ * formula to the whole range, however many cells it covers, and a
+ * RangeIndex finds the ranges that cover an edited cell.
+ *
+ * @author Mark Malyshev
+ * @author Yusuf Shakhpaz
+ * @author Georgia Karwhite
+ * @version June 2, 2025
+ */
+final class DependencyGraph {
+    private static final int[] NONE = new int[0];
+
+    /**
+     * The node id of each cell key in the graph
+     */
+    private final LongIntMap ids = new LongIntMap();
+
+    /**
+     * The cell key of each node
+     */
+    private long[] keys = new long[16];
+
+    /**
+     * For each node, the nodes its formula reads from
+     */
+    private int[][] precedents = new int[16][];
+
+    /**
+     * For each node, the nodes whose formulas read from it. Only the first
+     * dependentCounts[node] entries are in use.
+     */
+    private int[][] dependents = new int[16][];
+
+    /**
+     * The number of dependents in use for each node
+     */
+    private int[] dependentCounts = new int[16];
+
+    /**
+     * For each node, the ranges its formula reads as pairs of corner keys, or
+     * null if it reads none
+     */
+    private long[][] ranges = new long[16][];
+
+    /**
+     * The ranges of all nodes, indexed by the cells they cover
+     */
+    private final RangeIndex rangeIndex;
+
+    /**
+     * Scratch space for the readers of a node when some formulas read ranges
+     */
+    private int[] covering = new int[8];
+
+    /**
+     * The readers found by the last call to readersOf
+     */
+    private int[] readers;
+
+    /**
+     * Creates an empty graph
+     * @param columns the number of columns of the spreadsheet
+     */
+    DependencyGraph(int columns) {
+        rangeIndex = new RangeIndex(columns);
+    }
+
+    /**
+     * The walk each node was last visited in, compared against walkStamp so
+     * the marks never need to be reset between walks
+     */
+    private int[] marks = new int[16];
+
+    /**
+     * The stamp of the current walk
+     */
+    private int walkStamp;
+
+    /**
+     * Scratch space for the remaining in-degree of each node during a sort
+     */
+    private int[] indegrees = new int[16];
+
+    /**
+     * The number of nodes in the graph
+     */
+    private int size;
+
+    /**
+     * Gets the number of nodes in the graph
+     * @return the number of nodes
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Gets the node for a cell if it is in the graph
+     * @param key the key of the cell
+     * @return the node id, or -1 if the cell has no node
+     */
+    int nodeOf(long key) {
+        return ids.get(key);
+    }
+
+    /**
+     * Gets the node for a cell, adding one if the cell has no node yet
+     * @param key the key of the cell
+     * @return the node id of the cell
+     */
+    int addNode(long key) {
+        int node = ids.get(key);
+        if (node != LongIntMap.MISSING) {
+            return node;
+        }
+        if (size == keys.length) {
+            int capacity = size * 2;
+            keys = Arrays.copyOf(keys, capacity);
+            precedents = Arrays.copyOf(precedents, capacity);
+            dependents = Arrays.copyOf(dependents, capacity);
+            dependentCounts = Arrays.copyOf(dependentCounts, capacity);
+            marks = Arrays.copyOf(marks, capacity);
+            ranges = Arrays.copyOf(ranges, capacity);
+        }
+        node = size++;
+        keys[node] = key;
+        precedents[node] = NONE;
+        ranges[node] = null;
+        dependents[node] = NONE;
+        dependentCounts[node] = 0;
+        ids.put(key, node);
+        return node;
+    }
+
+    /**
+     * Gets the cell key of a node
+     * @param node the node id
+     * @return the key of the cell the node stands for
+     */
+    long keyOf(int node) {
+        return keys[node];
+    }
+
+    /**
+     * Gets the nodes that the given node's formula reads from
+     * @param node the node id
+     * @return the precedent node ids, which must not be modified
+     */
+    int[] precedentsOf(int node) {
+        return precedents[node];
+    }
+
+    /**
+     * Gets the nodes whose formulas read from the given node
+     * @param node the node id
+     * @return the dependent node ids; only the first dependentCount(node)
+     *         entries are valid and the array must not be modified
+     */
+    int[] dependentsOf(int node) {
+        return dependents[node];
+    }
+
+    /**
+     * Gets the number of nodes whose formulas read from the given node
+     * @param node the node id
+     * @return the number of dependents
+     */
+    int dependentCount(int node) {
+        return dependentCounts[node];
+    }
+
+    /**
+     * Replaces the outgoing edges of a node, updating the reverse edges of
+     * both the old and the new precedents
+     * @param node the node whose formula changed
+     * @param newPrecedents the nodes the new formula reads from, which may
+     *                      contain duplicates
+     * @param count the number of entries of newPrecedents in use
+     */
+    void setPrecedents(int node, int[] newPrecedents, int count) {
+        for (int precedent : precedents[node]) {
+            removeDependent(precedent, node);
+        }
+
+        walkStamp++;
+        int distinct = 0;
+        for (int i = 0; i < count; i++) {
+            int precedent = newPrecedents[i];
+            if (marks[precedent] != walkStamp) {
+                marks[precedent] = walkStamp;
+                newPrecedents[distinct++] = precedent;
+            }
+        }
+        precedents[node] = distinct == 0 ? NONE : Arrays.copyOf(newPrecedents, distinct);
+        for (int i = 0; i < distinct; i++) {
+            addDependent(newPrecedents[i], node);
+        }
+    }
+
+    /**
+     * Gets the ranges read by a node's formula
+     * @param node the node id
+     * @return the CellKeys of the corners of each range, one pair after the
+     *         other, or null if the formula reads no ranges; the array must
+     *         not be modified
+     */
+    long[] rangesOf(int node) {
+        return ranges[node];
+    }
+
+    /**
+     * Replaces the ranges read by a node's formula
+     * @param node the node whose formula changed
+     * @param nodeRanges the CellKeys of the top left and bottom right cell of
+     *                   each range, one pair after the other, or an empty
+     *                   array if the formula reads no ranges
+     */
+    void setRanges(int node, long[] nodeRanges) {
+        long[] oldRanges = ranges[node];
+        if (oldRanges != null) {
+            for (int i = 0; i < oldRanges.length; i += 2) {
+                rangeIndex.remove(node, oldRanges[i], oldRanges[i + 1]);
+            }
+        }
+        ranges[node] = nodeRanges.length == 0 ? null : nodeRanges;
+        for (int i = 0; i < nodeRanges.length; i += 2) {
+            rangeIndex.add(node, nodeRanges[i], nodeRanges[i + 1]);
+        }
+    }
+
+    /**
+     * Collects a node and all of its transitive dependents and sorts them so
+     * that every node comes after all of the nodes it reads from
+     * @param node the node that changed
+     * @return the dirty nodes in evaluation order, followed by any dirty
+     *         nodes that are on or behind a cycle
+     */
+    Order dependentsInOrder(int node) {
+        return dependentsInOrder(new int[] { node }, 1);
+    }
+
+    /**
+     * Collects several nodes and all of their transitive dependents and sorts
+     * them so that every node comes after all of the nodes it reads from.
+     * Nodes reachable from more than one of the given nodes are only
+     * evaluated once.
+     * @param nodes the nodes that changed, which may contain duplicates
+     * @param changed the number of entries of nodes in use
+     * @return the dirty nodes in evaluation order, followed by any dirty
+     *         nodes that are on or behind a cycle
+     */
+    Order dependentsInOrder(int[] nodes, int changed) {
+        walkStamp++;
+        int[] dirty = new int[Math.max(8, changed)];
+        int count = 0;
+        for (int i = 0; i < changed; i++) {
+            if (marks[nodes[i]] != walkStamp) {
+                marks[nodes[i]] = walkStamp;
+                dirty[count++] = nodes[i];
+            }
+        }
+
+        // The dirty array doubles as the breadth-first work queue
+        for (int head = 0; head < count; head++) {
+            int current = dirty[head];
+            int readerCount = readersOf(current);
+            int[] list = readers;
+            for (int i = 0; i < readerCount; i++) {
+                int next = list[i];
+                if (marks[next] != walkStamp) {
+                    marks[next] = walkStamp;
+                    if (count == dirty.length) {
+                        dirty = Arrays.copyOf(dirty, count * 2);
+                    }
+                    dirty[count++] = next;
+                }
+            }
+        }
+        return sort(dirty, count);
+    }
+
+    /**
+     * Sorts every node in the graph so that each node comes after all of the
+     * nodes it reads from
+     * @return all nodes in evaluation order, followed by any nodes that are
+     *         on or behind a cycle
+     */
+    Order allInOrder() {
+        walkStamp++;
+        int[] all = new int[size];
+        for (int node = 0; node < size; node++) {
+            marks[node] = walkStamp;
+            all[node] = node;
+        }
+        return sort(all, size);
+    }
+
+    /**
+     * Runs Kahn's algorithm over the nodes marked with the current walkStamp,
+     * counting only the edges between those nodes
+     * @param nodes the marked nodes, which are reordered in place
+     * @param count the number of marked nodes
+     * @return the sorted nodes
+     */
+    private Order sort(int[] nodes, int count) {
+        if (indegrees.length < size) {
+            indegrees = new int[keys.length];
+        }
+        for (int i = 0; i < count; i++) {
+            indegrees[nodes[i]] = 0;
+        }
+        for (int i = 0; i < count; i++) {
+            int readerCount = readersOf(nodes[i]);
+            for (int j = 0; j < readerCount; j++) {
+                if (marks[readers[j]] == walkStamp) {
+                    indegrees[readers[j]]++;
+                }
+            }
+        }
+
+        // Ready nodes are appended at the tail and taken from the head
+        int[] order = new int[count];
+        int tail = 0;
+        for (int i = 0; i < count; i++) {
+            if (indegrees[nodes[i]] == 0) {
+                order[tail++] = nodes[i];
+            }
+        }
+        // Nodes freed while one wave is processed form the next wave, so the
+        // nodes within a wave never read from each other
+        int[] waveEnds = new int[8];
+        int waveCount = 0;
+        int waveEnd = tail;
+        for (int head = 0; head < tail; head++) {
+            if (head == waveEnd) {
+                if (waveCount == waveEnds.length) {
+                    waveEnds = Arrays.copyOf(waveEnds, waveCount * 2);
+                }
+                waveEnds[waveCount++] = waveEnd;
+                waveEnd = tail;
+            }
+            int current = order[head];
+            int readerCount = readersOf(current);
+            int[] list = readers;
+            for (int i = 0; i < readerCount; i++) {
+                int next = list[i];
+                if (marks[next] == walkStamp && --indegrees[next] == 0) {
+                    order[tail++] = next;
+                }
+            }
+        }
+
+        if (tail > 0) {
+            if (waveCount == waveEnds.length) {
+                waveEnds = Arrays.copyOf(waveEnds, waveCount + 1);
+            }
+            waveEnds[waveCount++] = tail;
+        }
+
+        // Whatever never reached indegree zero is on a cycle or fed by one
+        int sorted = tail;
+        if (sorted < count) {
+            for (int i = 0; i < count; i++) {
+                if (indegrees[nodes[i]] > 0) {
+                    order[tail++] = nodes[i];
+                }
+            }
+        }
+        return new Order(order, sorted, Arrays.copyOf(waveEnds, waveCount));
+    }
+
+    /**
+     * Removes every node and edge from the graph
+     */
+    void clear() {
+        ids.clear();
+        Arrays.fill(precedents, 0, size, null);
+        Arrays.fill(dependents, 0, size, null);
+        Arrays.fill(ranges, 0, size, null);
+        rangeIndex.clear();
+        size = 0;
+    }
+
+    /**
+     * Checks if a cell is covered by a range read by some formula
+     * @param key the CellKey of the cell
+     * @return true if at least one range covers the cell
+     */
+    boolean isCovered(long key) {
+        return !rangeIndex.isEmpty() && rangeIndex.lookup(CellKey.row(key), CellKey.column(key)) > 0;
+    }
+
+    /**
+     * Finds the nodes that read from a node, either directly or through a
+     * range that covers it, and leaves them in readers. A node whose formula
+     * reads the cell more than once may be listed more than once.
+     * @param node the node id
+     * @return the number of entries of readers in use
+     */
+    private int readersOf(int node) {
+        int count = dependentCounts[node];
+        if (rangeIndex.isEmpty()) {
+            readers = dependents[node];
+            return count;
+        }
+        long key = keys[node];
+        int found = rangeIndex.lookup(CellKey.row(key), CellKey.column(key));
+        if (found == 0) {
+            readers = dependents[node];
+            return count;
+        }
+        if (covering.length < count + found) {
+            covering = new int[Math.max(count + found, covering.length * 2)];
+        }
+        System.arraycopy(dependents[node], 0, covering, 0, count);
+        System.arraycopy(rangeIndex.found(), 0, covering, count, found);
+        readers = covering;
+        return count + found;
+    }
+
+    private void addDependent(int node, int dependent) {
+        int count = dependentCounts[node];
+        if (count == dependents[node].length) {
+            dependents[node] = Arrays.copyOf(dependents[node], Math.max(4, count * 2));
+        }
+        dependents[node][count] = dependent;
+        dependentCounts[node] = count + 1;
+    }
+
+    private void removeDependent(int node, int dependent) {
+        int[] list = dependents[node];
+        int last = dependentCounts[node] - 1;
+        for (int i = 0; i <= last; i++) {
+            if (list[i] == dependent) {
+                list[i] = list[last];
+                dependentCounts[node] = last;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Order holds the result of sorting part of the graph. The first sorted
+     * entries of nodes can be evaluated in order; the rest could not be
+     * sorted because they are on a cycle or depend on one. The sorted nodes
+     * are grouped into waves: every node in a wave only reads from nodes in
+     * earlier waves, so the nodes of one wave can be evaluated in any order.
+     */
+    static final class Order {
+        /**
+         * The sorted nodes followed by the circular ones
+         */
+        final int[] nodes;
+
+        /**
+         * The number of nodes that were sorted
+         */
+        final int sorted;
+
+        /**
+         * The index in nodes just past the end of each wave
+         */
+        final int[] waveEnds;
+
+        /**
+         * Creates a new Order
+         * @param nodes the sorted nodes followed by the circular ones
+         * @param sorted the number of nodes that were sorted
+         * @param waveEnds the index just past the end of each wave
+         */
+        Order(int[] nodes, int sorted, int[] waveEnds) {
+            this.nodes = nodes;
+            this.sorted = sorted;
+            this.waveEnds = waveEnds;
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package app;
+
+/**
+ * EvaluationTrace is notified as a Spreadsheet recalculates its cells. It can
+ * be registered with Spreadsheet.setEvaluationTrace to count evaluations, keep
+ * the most recent ones, or log them. No trace is registered by default, and
+ * recalculation does no tracing work when there is none.
+ *
+ * @author Mark Malyshev
+ * @author Yusuf Shakhpaz
+ * @author Georgia Karwhite
+ * @version June 2, 2025
+ */
+public interface EvaluationTrace {
+
+    /**
+     * Called after a cell's formula has been evaluated during a recalculation
+     * @param row the row index of the cell
+     * @param col the column index of the cell
+     * @param cell the cell, holding its formula and new value
+     */
+    public void evaluated(int row, int col, Cell cell);
+
+    /**
+     * Called when a cell is put in the circular reference error state
+     * @param row the row index of the cell
+     * @param col the column index of the cell
+     * @param cell the cell
+     */
+    public default void circular(int row, int col, Cell cell) {
+    }
+
+    /**
+     * Creates a trace that prints each evaluation to standard output
+     * @return a trace that prints every evaluated formula and its value
+     */
+    public static EvaluationTrace printing() {
+        return (row, col, cell) -> System.out.println(
+                "Evaluated formula '" + cell.getFormula() + "' = " + cell.getValue());
+    }
+}
@@ -1,7 +1,8 @@
 package app;
 
+import java.util.Arrays;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
-import java.util.Stack;
 
 /**
  * ExpressionTree is designed to manage the order of operations, and
@@ -13,49 +14,79 @@ import java.util.Stack;
  * @version June 2, 2025
  */
 public class ExpressionTree {
+    // Instructions of the compiled form of the tree
+    static final int PushLiteral = 0;
+    static final int PushCell = 1;
+    static final int Add = 2;
+    static final int Subtract = 3;
+    static final int Multiply = 4;
+    static final int Divide = 5;
+    static final int BadOperator = 6;
+    static final int Aggregate = 7;
+
+    // Functions of the Aggregate instruction
+    static final int Sum = 0;
+    static final int Average = 1;
+    static final int Min = 2;
+    static final int Max = 3;
+    static final int Count = 4;
+
+    private static final long[] NoRanges = new long[0];
+
     /**
-     * The root of the expression tree
+     * The tree compiled into postfix instructions. PushLiteral and PushCell
+     * are followed by an operand: the literal value, or the slot of the cell
+     * in references. Aggregate is followed by the function and the slot of
+     * its range in ranges.
      */
-    private ExpressionTreeNode root;
-    
+    private int[] code;
+
     /**
-     * A list of the cells that are part of the expression
+     * The most operands that are on the stack at once while running code
      */
-    private LinkedList<Cell> myCellRefs = new LinkedList<Cell>();
+    private int maxStack;
 
     /**
-     * Builds an ExpressionTree based on the given postfix notation
-     * @param postfix a Stack of Tokens that represents the postfix notation
+     * The distinct cells referenced by the expression as CellKeys, in the
+     * order they first appear. This is filled in once when the tree is built
+     * and never changes after that.
      */
-    public void buildTree(Stack<Token> postfix) {
-        Stack<ExpressionTreeNode> stack = new Stack<>();
-        
-        // We need to process the postfix in reverse order
-        Stack<Token> reversed = new Stack<>();
-        while (!postfix.isEmpty()) {
-            reversed.push(postfix.pop());
-        }
+    private long[] references = new long[0];
 
-        while (!reversed.isEmpty()) {
-            Token token = reversed.pop();
-            
-            if (token instanceof OperatorToken) {
-                // Operators need two operands
-                if (stack.size() < 2) {
-                    System.out.println("Error: Not enough operands for operator " + token);
-                    this.root = null;
-                    return;
-                }
-                ExpressionTreeNode right = stack.pop();
-                ExpressionTreeNode left = stack.pop();
-                stack.push(new ExpressionTreeNode(token, left, right));
-            } else {
-                // Numbers and cell references are leaves
-                stack.push(new ExpressionTreeNode(token, null, null));
-            }
-        }
-        
-        this.root = stack.isEmpty() ? null : stack.pop();
+    /**
+     * The ranges read by aggregate functions, as pairs of CellKeys of the
+     * top left and bottom right cell of each range
+     */
+    private long[] ranges = NoRanges;
+
+    /**
+     * The graph node of each entry in references, or null if the tree has
+     * not been bound to a spreadsheet
+     */
+    private int[] boundNodes;
+
+    /**
+     * The RangeAggregates id of each range in ranges, or null if the ranges
+     * have not been bound
+     */
+    private int[] boundAggregates;
+
+    /**
+     * Creates an ExpressionTree from code compiled earlier, for example by a
+     * saved snapshot or the formula cache
+     * @param code the compiled instructions, or null for an empty tree
+     * @param references the CellKeys of the distinct cells the code reads
+     * @param ranges the corner CellKeys of the ranges the code aggregates
+     * @param stackDepth the most operands the code has on the stack at once
+     * @return the new tree
+     */
+    static ExpressionTree fromCode(int[] code, long[] references, long[] ranges, int stackDepth) {
+        ExpressionTree tree = new ExpressionTree();
+        tree.code = code;
+        tree.references = references;
+        tree.ranges = ranges;
+        tree.maxStack = stackDepth;
+        return tree;
     }
 
     /**
@@ -64,58 +95,156 @@ public class ExpressionTree {
      * @return the int result from evaluating the expression tree
      */
     public int evaluate(Spreadsheet spreadsheet) {
-        if (root == null) {
-            System.out.println("Error: Empty expression tree");
+        return evaluate(spreadsheet, spreadsheet.operandStack(maxStack));
+    }
+
+    /**
+     * Evaluates the expression using the given operand stack
+     * @param spreadsheet the spreadsheet this expression tree is part of
+     * @param stack an operand stack with room for at least stackDepth() values
+     * @return the int result from evaluating the expression tree
+     */
+    int evaluate(Spreadsheet spreadsheet, int[] stack) {
+        if (code == null) {
+            // An incomplete formula such as 1+, which is worth 0
             return 0;
         }
-        return evaluateNode(root, spreadsheet);
+
+        int top = 0;
+        for (int pc = 0; pc < code.length; pc++) {
+            switch (code[pc]) {
+                case PushLiteral:
+                    stack[top++] = code[++pc];
+                    break;
+                case PushCell:
+                    stack[top++] = valueOf(code[++pc], spreadsheet);
+                    break;
+                case Aggregate:
+                    stack[top++] = aggregateOf(code[pc + 1], code[pc + 2], spreadsheet);
+                    pc += 2;
+                    break;
+                case Add:
+                    top--;
+                    stack[top - 1] += stack[top];
+                    break;
+                case Subtract:
+                    top--;
+                    stack[top - 1] -= stack[top];
+                    break;
+                case Multiply:
+                    top--;
+                    stack[top - 1] *= stack[top];
+                    break;
+                case Divide:
+                    top--;
+                    stack[top - 1] = stack[top] != 0 ? stack[top - 1] / stack[top] : 0;
+                    break;
+                default:
+                    // BadOperator, left behind by an unmatched parenthesis
+                    top--;
+                    stack[top - 1] = 0;
+                    break;
+            }
+        }
+        return stack[0];
     }
 
     /**
-     * Gets the list of cell dependencies
-     * @return a LinkedList of the cells that are used in this tree
+     * Gets the list of cell dependencies. Referenced cells that do not exist
+     * are left out rather than created, and cells inside aggregated ranges
+     * are only listed if they have been written.
+     * @param spreadsheet the spreadsheet the references of this tree point into
+     * @return a new LinkedList of the cells that are used in this tree
      */
-    public LinkedList<Cell> getCellDependencies() {
-        return myCellRefs;
+    public LinkedList<Cell> getCellDependencies(Spreadsheet spreadsheet) {
+        LinkedHashSet<Cell> cells = new LinkedHashSet<Cell>();
+        for (long key : references) {
+            Cell cell = spreadsheet.findCell(CellKey.row(key), CellKey.column(key));
+            if (cell != null) {
+                cells.add(cell);
+            }
+        }
+        for (int i = 0; i < ranges.length; i += 2) {
+            spreadsheet.collectWrittenCells(ranges[i], ranges[i + 1], cells);
+        }
+        return new LinkedList<Cell>(cells);
     }
 
-    
-    private int evaluateNode(ExpressionTreeNode node, Spreadsheet spreadsheet) {
-        if (node == null) return 0;
-        
-        if (node.token instanceof LiteralToken) {
-            return ((LiteralToken) node.token).getValue();
+    /**
+     * Gets the number of operands evaluation needs room for
+     * @return the most operands on the stack at once while evaluating
+     */
+    int stackDepth() {
+        return maxStack;
+    }
+
+    /**
+     * Gets the compiled instructions of this tree
+     * @return the code, or null if the tree is empty; the array must not be
+     *         modified
+     */
+    int[] code() {
+        return code;
+    }
+
+    /**
+     * Gets the distinct cells referenced by this tree
+     * @return the CellKeys of the references, in the order they first appear;
+     *         the array must not be modified
+     */
+    long[] references() {
+        return references;
+    }
+
+    /**
+     * Gets the ranges aggregated by this tree
+     * @return the CellKeys of the top left and bottom right cell of each
+     *         range, one pair after the other; the array must not be modified
+     */
+    long[] ranges() {
+        return ranges;
+    }
+
+    /**
+     * Binds the references of this tree to nodes of a spreadsheet's
+     * dependency graph, so evaluation can read them without looking them up
+     * @param nodes the graph node of each reference, or -1 for a reference
+     *              outside of the spreadsheet
+     */
+    void bind(int[] nodes) {
+        this.boundNodes = nodes;
+    }
+
+    /**
+     * Binds the ranges of this tree to the running aggregates of a
+     * spreadsheet, so evaluation does not need to scan them
+     * @param aggregates the aggregate id of each range, or -1 for a range
+     *                   that is scanned each time
+     */
+    void bindAggregates(int[] aggregates) {
+        this.boundAggregates = aggregates;
+    }
+
+    private int aggregateOf(int function, int slot, Spreadsheet spreadsheet) {
+        if (boundAggregates != null && boundAggregates[slot] >= 0) {
+            return spreadsheet.aggregateOf(boundAggregates[slot], function);
         }
-        else if (node.token instanceof CellToken) {
-            CellToken cellRef = (CellToken) node.token;
-            Cell cell = spreadsheet.getCell(cellRef.getRow(), cellRef.getColumn());
-            if (cell == null) {
-                System.out.println("Error: Invalid cell reference " + cellRef);
-                return 0;
-            } else {
-                myCellRefs.add(cell);
-            }
-            return cell.getValue();
+        return spreadsheet.aggregate(function, ranges[slot * 2], ranges[slot * 2 + 1]);
+    }
+
+    private int valueOf(int slot, Spreadsheet spreadsheet) {
+        if (boundNodes != null) {
+            return spreadsheet.valueOfNode(boundNodes[slot]);
         }
-        else if (node.token instanceof OperatorToken) {
-            int left = evaluateNode(node.left, spreadsheet);
-            int right = evaluateNode(node.right, spreadsheet);
-            char op = ((OperatorToken) node.token).getOperatorToken();
-            
-            System.out.println("Calculating: " + left + " " + op + " " + right);
-            
-            switch (op) {
-                case '+': return left + right;
-                case '-': return left - right;
-                case '*': return left * right;
-                case '/': return right != 0 ? left / right : 0;
-                default: 
-                    System.out.println("Error: Unknown operator " + op);
-                    return 0;
-            }
+        // Evaluation must not write to the sheet, and may run on a thread of
+        // a parallel recalculation while the editing thread holds the lock,
+        // so the cell is read in place rather than through getCell
+        long key = references[slot];
+        int row = CellKey.row(key);
+        int col = CellKey.column(key);
+        if (row >= spreadsheet.getNumberOfRows() || col >= spreadsheet.getNumberOfColumns()) {
+            return 0;
         }
-        
-        System.out.println("Error: Unknown token type");
-        return 0;
+        return spreadsheet.valueAt(row, col);
     }
-}
\ No newline at end of file
+}
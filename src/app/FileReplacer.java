@@ -0,0 +1,103 @@
+package app;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * FileReplacer replaces a file in one step. The new contents are written to
+ * a temporary file next to the target, forced to disk, and then moved over
+ * it, so the target is never left half written, even by a crash. Where the
+ * platform allows it the directory is forced to disk after the move as
+ * well, so the move itself survives a crash. The temporary file is created
+ * the way any other file would be, and takes the permissions of the file it
+ * replaces, so saving never changes who can read the target.
+ *
+ * @author Mark Malyshev
+ * @author Yusuf Shakhpaz
+ * @author Georgia Karwhite
+ * @version June 2, 2025
+ */
+final class FileReplacer {
+
+    /**
+     * Writes the new contents of a file
+     */
+    interface Contents {
+        /**
+         * Writes the contents to a file that already exists and is empty
+         * @param file the file to write to
+         * @throws IOException if the file cannot be written
+         */
+        void writeTo(Path file) throws IOException;
+    }
+
+    private FileReplacer() {
+    }
+
+    /**
+     * Replaces a file with new contents, creating it if it does not exist
+     * @param path the file to replace
+     * @param contents writes the new contents
+     * @throws IOException if the file cannot be written or replaced
+     */
+    static void replace(Path path, Contents contents) throws IOException {
+        Path target = path.toAbsolutePath();
+        Path temp = createTemp(target);
+        try {
+            copyPermissions(target, temp);
+            contents.writeTo(temp);
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                channel.force(true);
+            }
+            try {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+            forceDirectory(target.getParent());
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private static void forceDirectory(Path directory) {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // Some platforms, such as Windows, cannot open a directory; the
+            // move is still atomic there, just not yet known to be on disk
+        }
+    }
+
+    private static Path createTemp(Path target) throws IOException {
+        // Files.createTempFile would make the file readable by its owner only.
+        // Opening it normally leaves the permissions to the umask instead.
+        String prefix = "." + target.getFileName() + ".";
+        while (true) {
+            Path temp = target.resolveSibling(
+                    prefix + Long.toUnsignedString(ThreadLocalRandom.current().nextLong(), 36) + ".tmp");
+            try {
+                Files.newByteChannel(temp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE).close();
+                return temp;
+            } catch (FileAlreadyExistsException e) {
+                // Try another name
+            }
+        }
+    }
+
+    private static void copyPermissions(Path target, Path temp) throws IOException {
+        PosixFileAttributeView view = Files.getFileAttributeView(target, PosixFileAttributeView.class);
+        if (view != null && Files.exists(target)) {
+            Files.setPosixFilePermissions(temp, view.readAttributes().permissions());
+        }
+    }
+}
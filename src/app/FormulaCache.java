@@ -0,0 +1,145 @@
+package app;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * FormulaCache remembers the compiled form of recently parsed formulas so a
+ * formula that is entered again skips parsing and compiling. Formulas are
+ * keyed by their tokens with every cell reference written relative to the
+ * cell holding the formula, so "A1+1" in B1 and "A2+1" in B2 share an entry,
+ * as formulas filled down a column do. The least recently used entries are
+ * dropped once the cache is full.
+ *
+ * @author Mark Malyshev
+ * @author Yusuf Shakhpaz
+ * @author Georgia Karwhite
+ * @version June 2, 2025
+ */
+final class FormulaCache {
+    /**
+     * The compiled formulas, in least recently used order
+     */
+    private final LinkedHashMap<String, CompiledFormula> entries;
+
+    /**
+     * Creates an empty cache
+     * @param capacity the most formulas to remember
+     */
+    FormulaCache(int capacity) {
+        entries = new LinkedHashMap<String, CompiledFormula>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CompiledFormula> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Builds the cache key of a tokenized formula. Numbers are ended with '#',
+     * cell references become "R{rows}C{columns};" offsets from the cell
+     * holding the formula, and aggregates become "@{function}" followed by
+     * the offsets of both corners of their range.
+     * @param tokens the tokens of the formula
+     * @param row the row index of the cell holding the formula
+     * @param col the column index of the cell holding the formula
+     * @return the key
+     */
+    static String keyOf(FormulaLexer tokens, int row, int col) {
+        StringBuilder key = new StringBuilder(tokens.count() * 4);
+        for (int i = 0; i < tokens.count(); i++) {
+            switch (tokens.kind(i)) {
+                case FormulaLexer.Literal:
+                    key.append(tokens.value(i)).append('#');
+                    break;
+                case FormulaLexer.Cell:
+                    key.append('R').append(tokens.value(i) - row)
+                            .append('C').append(tokens.column(i) - col).append(';');
+                    break;
+                case FormulaLexer.Aggregate:
+                    key.append('@').append(tokens.function(i))
+                            .append('R').append(tokens.value(i) - row)
+                            .append('C').append(tokens.column(i) - col)
+                            .append(":R").append(tokens.lastRow(i) - row)
+                            .append('C').append(tokens.lastColumn(i) - col).append(';');
+                    break;
+                default:
+                    key.append((char) tokens.value(i));
+                    break;
+            }
+        }
+        return key.toString();
+    }
+
+    /**
+     * Gets a compiled formula for a cell if its key is cached
+     * @param key the key of the formula, from keyOf
+     * @param row the row index of the cell holding the formula
+     * @param col the column index of the cell holding the formula
+     * @return a new tree for the cell sharing the cached code, or null if the
+     *         formula is not cached
+     */
+    ExpressionTree get(String key, int row, int col) {
+        CompiledFormula compiled = entries.get(key);
+        return compiled == null ? null : compiled.instantiate(row, col);
+    }
+
+    /**
+     * Remembers the compiled form of a formula
+     * @param key the key of the formula, from keyOf
+     * @param tree the tree parsed from the formula
+     * @param row the row index of the cell holding the formula
+     * @param col the column index of the cell holding the formula
+     */
+    void put(String key, ExpressionTree tree, int row, int col) {
+        long[] references = tree.references();
+        int[] rowOffsets = new int[references.length];
+        int[] colOffsets = new int[references.length];
+        for (int i = 0; i < references.length; i++) {
+            rowOffsets[i] = CellKey.row(references[i]) - row;
+            colOffsets[i] = CellKey.column(references[i]) - col;
+        }
+        long[] ranges = tree.ranges();
+        int[] rangeOffsets = new int[ranges.length * 2];
+        for (int i = 0; i < ranges.length; i++) {
+            rangeOffsets[i * 2] = CellKey.row(ranges[i]) - row;
+            rangeOffsets[i * 2 + 1] = CellKey.column(ranges[i]) - col;
+        }
+        entries.put(key, new CompiledFormula(tree.code(), tree.stackDepth(), rowOffsets, colOffsets,
+                rangeOffsets));
+    }
+
+    /**
+     * CompiledFormula is the shareable part of a compiled formula: its code,
+     * and the offset of each reference and range corner from the cell
+     * holding the formula
+     */
+    private static final class CompiledFormula {
+        private final int[] code;
+        private final int stackDepth;
+        private final int[] rowOffsets;
+        private final int[] colOffsets;
+        private final int[] rangeOffsets;
+
+        private CompiledFormula(int[] code, int stackDepth, int[] rowOffsets, int[] colOffsets,
+                int[] rangeOffsets) {
+            this.code = code;
+            this.stackDepth = stackDepth;
+            this.rowOffsets = rowOffsets;
+            this.colOffsets = colOffsets;
+            this.rangeOffsets = rangeOffsets;
+        }
+
+        private ExpressionTree instantiate(int row, int col) {
+            long[] references = new long[rowOffsets.length];
+            for (int i = 0; i < references.length; i++) {
+                references[i] = CellKey.of(row + rowOffsets[i], col + colOffsets[i]);
+            }
+            long[] ranges = new long[rangeOffsets.length / 2];
+            for (int i = 0; i < ranges.length; i++) {
+                ranges[i] = CellKey.of(row + rangeOffsets[i * 2], col + rangeOffsets[i * 2 + 1]);
+            }
+            return ExpressionTree.fromCode(code, references, ranges, stackDepth);
+        }
+    }
+}
@@ -0,0 +1,296 @@
+package app;
+
+import java.util.Arrays;
+
+/**
+ * FormulaLexer splits a formula into tokens without creating an object per
+ * token. Each token is stored as a kind and int payloads in primitive
+ * arrays that are reused from one formula to the next. Besides numbers, cell
+ * references and operators it accepts aggregate functions over a range, such
+ * as SUM(A1:C500), which become a single token.
+ *
+ * @author Mark Malyshev
+ * @author Yusuf Shakhpaz
+ * @author Georgia Karwhite
+ * @version June 2, 2025
+ */
+final class FormulaLexer {
+    // Kinds of tokens
+    static final int Literal = 0;
+    static final int Cell = 1;
+    static final int Operator = 2;
+    static final int RightParen = 3;
+    static final int Aggregate = 4;
+
+    /**
+     * Returned by readCell for text that is not a valid cell reference; no
+     * CellKey is negative, so it cannot be mistaken for one
+     */
+    private static final long BadReference = Long.MIN_VALUE;
+
+    /**
+     * The names of the aggregate functions, indexed by ExpressionTree function
+     */
+    private static final String[] FunctionNames = { "SUM", "AVG", "MIN", "MAX", "COUNT" };
+
+    /**
+     * The kind of each token
+     */
+    private int[] kinds = new int[16];
+
+    /**
+     * The value of each literal, the row of each cell reference or the top
+     * row of each range, or the character of each operator
+     */
+    private int[] values = new int[16];
+
+    /**
+     * The column of each cell reference, or the left column of each range
+     */
+    private int[] columns = new int[16];
+
+    /**
+     * The bottom row of each range
+     */
+    private int[] lastRows = new int[16];
+
+    /**
+     * The right column of each range
+     */
+    private int[] lastColumns = new int[16];
+
+    /**
+     * The ExpressionTree function of each aggregate
+     */
+    private int[] functions = new int[16];
+
+    /**
+     * The index just past the last cell reference or function call read
+     */
+    private int next;
+
+    /**
+     * The number of tokens of the last formula
+     */
+    private int count;
+
+    /**
+     * Splits a formula into tokens, replacing the tokens of the last formula
+     * @param formula the formula text
+     * @return true if the formula only holds valid tokens, false if it has an
+     *         invalid cell reference or character
+     */
+    boolean tokenize(CharSequence formula) {
+        count = 0;
+        int length = formula.length();
+        int index = 0;
+        while (index < length) {
+            char ch = formula.charAt(index);
+            if (Character.isWhitespace(ch)) {
+                index++;
+            } else if (OperatorToken.isOperator(ch)) {
+                add(Operator, ch, 0);
+                index++;
+            } else if (ch == OperatorToken.RightParen) {
+                add(RightParen, ch, 0);
+                index++;
+            } else if (Character.isDigit(ch)) {
+                int value = 0;
+                while (index < length && Character.isDigit(formula.charAt(index))) {
+                    value = value * 10 + (formula.charAt(index++) - '0');
+                }
+                add(Literal, value, 0);
+            } else if (Character.isUpperCase(ch)) {
+                int start = index;
+                while (index < length && Character.isUpperCase(formula.charAt(index))) {
+                    index++;
+                }
+                if (index < length && formula.charAt(index) == OperatorToken.LeftParen) {
+                    if (!readAggregate(formula, start, index)) {
+                        return false;
+                    }
+                    index = next;
+                } else {
+                    long cell = readCell(formula, start);
+                    if (cell == BadReference) {
+                        return false;
+                    }
+                    add(Cell, CellKey.row(cell), CellKey.column(cell));
+                    index = next;
+                }
+            } else {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reads a function call such as SUM(A1:C5) or SUM(A1) and adds it as an
+     * Aggregate token
+     * @param formula the formula text
+     * @param start the index of the function name
+     * @param paren the index of the parenthesis after the name
+     * @return true if the call is valid; next is then just past it
+     */
+    private boolean readAggregate(CharSequence formula, int start, int paren) {
+        int function = functionOf(formula, start, paren);
+        if (function < 0) {
+            return false;
+        }
+        long first = readCell(formula, skipWhitespace(formula, paren + 1));
+        if (first == BadReference) {
+            return false;
+        }
+        long last = first;
+        int index = skipWhitespace(formula, next);
+        if (index < formula.length() && formula.charAt(index) == ':') {
+            last = readCell(formula, skipWhitespace(formula, index + 1));
+            if (last == BadReference) {
+                return false;
+            }
+            index = skipWhitespace(formula, next);
+        }
+        if (index >= formula.length() || formula.charAt(index) != OperatorToken.RightParen) {
+            return false;
+        }
+        add(Aggregate, Math.min(CellKey.row(first), CellKey.row(last)),
+                Math.min(CellKey.column(first), CellKey.column(last)));
+        lastRows[count - 1] = Math.max(CellKey.row(first), CellKey.row(last));
+        lastColumns[count - 1] = Math.max(CellKey.column(first), CellKey.column(last));
+        functions[count - 1] = function;
+        next = index + 1;
+        return true;
+    }
+
+    /**
+     * Reads a cell reference: one or more capital letters for the column,
+     * then the row number, counting from 1
+     * @param formula the formula text
+     * @param index the index of the first column letter
+     * @return the CellKey of the reference, or BadReference if it is not a
+     *         valid reference; next is then just past it
+     */
+    private long readCell(CharSequence formula, int index) {
+        int length = formula.length();
+        if (index >= length || !Character.isUpperCase(formula.charAt(index))) {
+            return BadReference;
+        }
+        int column = formula.charAt(index++) - 'A';
+        while (index < length && Character.isUpperCase(formula.charAt(index))) {
+            column = (column + 1) * 26 + (formula.charAt(index++) - 'A');
+        }
+        if (index >= length || !Character.isDigit(formula.charAt(index))) {
+            return BadReference;
+        }
+        int row = 0;
+        while (index < length && Character.isDigit(formula.charAt(index))) {
+            row = row * 10 + (formula.charAt(index++) - '0');
+        }
+        if (row == 0) {
+            return BadReference;
+        }
+        next = index;
+        return CellKey.of(row - 1, column);
+    }
+
+    private static int functionOf(CharSequence formula, int start, int end) {
+        for (int f = 0; f < FunctionNames.length; f++) {
+            String name = FunctionNames[f];
+            int i = 0;
+            while (i < name.length() && start + i < end && name.charAt(i) == formula.charAt(start + i)) {
+                i++;
+            }
+            if (i == name.length() && start + i == end) {
+                return f;
+            }
+        }
+        return -1;
+    }
+
+    private static int skipWhitespace(CharSequence formula, int index) {
+        while (index < formula.length() && Character.isWhitespace(formula.charAt(index))) {
+            index++;
+        }
+        return index;
+    }
+
+    /**
+     * Gets the number of tokens of the last formula
+     * @return the number of tokens
+     */
+    int count() {
+        return count;
+    }
+
+    /**
+     * Gets the kind of a token
+     * @param index the index of the token
+     * @return Literal, Cell, Operator or RightParen
+     */
+    int kind(int index) {
+        return kinds[index];
+    }
+
+    /**
+     * Gets the main payload of a token
+     * @param index the index of the token
+     * @return the value of a literal, the row index of a cell reference, the
+     *         top row of a range, or the character of an operator
+     */
+    int value(int index) {
+        return values[index];
+    }
+
+    /**
+     * Gets the column of a cell reference token
+     * @param index the index of the token
+     * @return the column index of the cell reference, or the left column of
+     *         a range
+     */
+    int column(int index) {
+        return columns[index];
+    }
+
+    /**
+     * Gets the bottom row of an aggregate token's range
+     * @param index the index of the token
+     * @return the row index of the bottom of the range
+     */
+    int lastRow(int index) {
+        return lastRows[index];
+    }
+
+    /**
+     * Gets the right column of an aggregate token's range
+     * @param index the index of the token
+     * @return the column index of the right side of the range
+     */
+    int lastColumn(int index) {
+        return lastColumns[index];
+    }
+
+    /**
+     * Gets the function of an aggregate token
+     * @param index the index of the token
+     * @return the ExpressionTree function, such as ExpressionTree.Sum
+     */
+    int function(int index) {
+        return functions[index];
+    }
+
+    private void add(int kind, int value, int column) {
+        if (count == kinds.length) {
+            kinds = Arrays.copyOf(kinds, count * 2);
+            values = Arrays.copyOf(values, count * 2);
+            columns = Arrays.copyOf(columns, count * 2);
+            lastRows = Arrays.copyOf(lastRows, count * 2);
+            lastColumns = Arrays.copyOf(lastColumns, count * 2);
+            functions = Arrays.copyOf(functions, count * 2);
+        }
+        kinds[count] = kind;
+        values[count] = value;
+        columns[count] = column;
+        count++;
+    }
+}
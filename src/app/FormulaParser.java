@@ -0,0 +1,267 @@
+package app;
+
+import java.util.Arrays;
+
+/**
+ * FormulaParser turns the tokens of a formula into a compiled ExpressionTree
+ * without building token objects or tree nodes. The shunting-yard pass writes
+ * the postfix order as token indices into a reusable int array, and the
+ * compiled code is emitted straight from it. The result is the same as
+ * building a tree from the postfix Stack and compiling it.
+ *
+ * @author Mark Malyshev
+ * @author Yusuf Shakhpaz
+ * @author Georgia Karwhite
+ * @version June 2, 2025
+ */
+final class FormulaParser {
+    private static final long[] NoReferences = new long[0];
+
+    /**
+     * The token indices of the pending operators
+     */
+    private int[] operators = new int[8];
+
+    /**
+     * The token indices of the formula in postfix order
+     */
+    private int[] postfix = new int[16];
+
+    /**
+     * For each operand on the stack, where its subtree starts in postfix
+     */
+    private int[] starts = new int[8];
+
+    /**
+     * The code being emitted
+     */
+    private int[] code = new int[16];
+
+    /**
+     * The distinct references found so far, in the order they first appear
+     */
+    private long[] references = new long[4];
+
+    /**
+     * The distinct ranges found so far, as pairs of corner CellKeys
+     */
+    private long[] ranges = new long[4];
+
+    /**
+     * The slot of each reference, used once a formula has many of them
+     */
+    private final LongIntMap slots = new LongIntMap();
+
+    /**
+     * Whether slots holds the references of the current formula
+     */
+    private boolean useSlots;
+
+    /**
+     * Parses tokens into a compiled tree
+     * @param tokens the tokens of a formula
+     * @return the compiled tree, which has no code if an operator is missing
+     *         an operand, or null if the formula has no operands at all
+     */
+    ExpressionTree parse(FormulaLexer tokens) {
+        int length = toPostfix(tokens);
+        if (length == 0) {
+            return null;
+        }
+
+        // Find where the subtree of the final operand starts; any operands
+        // before it are left over and are not part of the expression
+        int depth = 0;
+        for (int p = 0; p < length; p++) {
+            if (tokens.kind(postfix[p]) == FormulaLexer.Operator) {
+                if (depth < 2) {
+                    return ExpressionTree.fromCode(null, NoReferences, NoReferences, 0);
+                }
+                depth--;
+            } else {
+                if (depth == starts.length) {
+                    starts = Arrays.copyOf(starts, depth * 2);
+                }
+                starts[depth++] = p;
+            }
+        }
+        return emit(tokens, starts[depth - 1], length);
+    }
+
+    /**
+     * Runs the shunting-yard algorithm over the tokens
+     * @param tokens the tokens of a formula
+     * @return the number of token indices written to postfix
+     */
+    private int toPostfix(FormulaLexer tokens) {
+        // Each token is written to postfix or pushed as an operator at most
+        // once, so neither array can need more room than there are tokens
+        if (postfix.length < tokens.count()) {
+            postfix = new int[tokens.count()];
+        }
+        if (operators.length < tokens.count()) {
+            operators = new int[tokens.count()];
+        }
+        int length = 0;
+        int pending = 0;
+        for (int i = 0; i < tokens.count(); i++) {
+            switch (tokens.kind(i)) {
+                case FormulaLexer.Operator:
+                    char op = (char) tokens.value(i);
+                    int priority = OperatorToken.getPriority(op);
+                    while (pending > 0) {
+                        char top = (char) tokens.value(operators[pending - 1]);
+                        if (top != OperatorToken.LeftParen && OperatorToken.getPriority(top) >= priority) {
+                            postfix[length++] = operators[--pending];
+                        } else {
+                            break;
+                        }
+                    }
+                    operators[pending++] = i;
+                    break;
+                case FormulaLexer.RightParen:
+                    while (pending > 0) {
+                        int top = operators[--pending];
+                        if (tokens.value(top) == OperatorToken.LeftParen) {
+                            break;
+                        }
+                        postfix[length++] = top;
+                    }
+                    break;
+                default:
+                    postfix[length++] = i;
+                    break;
+            }
+        }
+        while (pending > 0) {
+            postfix[length++] = operators[--pending];
+        }
+        return length;
+    }
+
+    /**
+     * Emits code for part of the postfix order
+     * @param tokens the tokens of a formula
+     * @param from the index in postfix of the first token to emit
+     * @param to the index in postfix just past the last token to emit
+     * @return the compiled tree
+     */
+    private ExpressionTree emit(FormulaLexer tokens, int from, int to) {
+        int length = 0;
+        int referenceCount = 0;
+        int rangeCount = 0;
+        int depth = 0;
+        int maxDepth = 0;
+        useSlots = false;
+        if (code.length < (to - from) * 3) {
+            code = new int[(to - from) * 3];
+        }
+        for (int p = from; p < to; p++) {
+            int token = postfix[p];
+            switch (tokens.kind(token)) {
+                case FormulaLexer.Literal:
+                    code[length++] = ExpressionTree.PushLiteral;
+                    code[length++] = tokens.value(token);
+                    maxDepth = Math.max(maxDepth, ++depth);
+                    break;
+                case FormulaLexer.Cell:
+                    long key = CellKey.of(tokens.value(token), tokens.column(token));
+                    int slot = slotOf(key, referenceCount);
+                    if (slot == referenceCount) {
+                        referenceCount++;
+                    }
+                    code[length++] = ExpressionTree.PushCell;
+                    code[length++] = slot;
+                    maxDepth = Math.max(maxDepth, ++depth);
+                    break;
+                case FormulaLexer.Aggregate:
+                    long first = CellKey.of(tokens.value(token), tokens.column(token));
+                    long last = CellKey.of(tokens.lastRow(token), tokens.lastColumn(token));
+                    int range = rangeSlotOf(first, last, rangeCount);
+                    if (range == rangeCount) {
+                        rangeCount++;
+                    }
+                    code[length++] = ExpressionTree.Aggregate;
+                    code[length++] = tokens.function(token);
+                    code[length++] = range;
+                    maxDepth = Math.max(maxDepth, ++depth);
+                    break;
+                default:
+                    code[length++] = instructionOf((char) tokens.value(token));
+                    depth--;
+                    break;
+            }
+        }
+        return ExpressionTree.fromCode(Arrays.copyOf(code, length),
+                Arrays.copyOf(references, referenceCount),
+                rangeCount == 0 ? NoReferences : Arrays.copyOf(ranges, rangeCount * 2), maxDepth);
+    }
+
+    /**
+     * Finds the slot of a reference, adding it after the others if it is new
+     * @param key the CellKey of the reference
+     * @param referenceCount the number of references found so far
+     * @return the slot of the reference, which is referenceCount if it is new
+     */
+    private int slotOf(long key, int referenceCount) {
+        if (useSlots) {
+            int slot = slots.get(key);
+            if (slot != LongIntMap.MISSING) {
+                return slot;
+            }
+        } else {
+            for (int i = 0; i < referenceCount; i++) {
+                if (references[i] == key) {
+                    return i;
+                }
+            }
+        }
+        if (referenceCount == references.length) {
+            references = Arrays.copyOf(references, referenceCount * 2);
+        }
+        // Past a handful of references a linear search gets slow
+        if (!useSlots && referenceCount >= 8) {
+            slots.clear();
+            for (int i = 0; i < referenceCount; i++) {
+                slots.put(references[i], i);
+            }
+            useSlots = true;
+        }
+        if (useSlots) {
+            slots.put(key, referenceCount);
+        }
+        references[referenceCount] = key;
+        return referenceCount;
+    }
+
+    /**
+     * Finds the slot of a range, adding it after the others if it is new
+     * @param first the CellKey of the top left cell of the range
+     * @param last the CellKey of the bottom right cell of the range
+     * @param rangeCount the number of ranges found so far
+     * @return the slot of the range, which is rangeCount if it is new
+     */
+    private int rangeSlotOf(long first, long last, int rangeCount) {
+        for (int i = 0; i < rangeCount; i++) {
+            if (ranges[i * 2] == first && ranges[i * 2 + 1] == last) {
+                return i;
+            }
+        }
+        if (rangeCount * 2 == ranges.length) {
+            ranges = Arrays.copyOf(ranges, ranges.length * 2);
+        }
+        ranges[rangeCount * 2] = first;
+        ranges[rangeCount * 2 + 1] = last;
+        return rangeCount;
+    }
+
+    private static int instructionOf(char op) {
+        switch (op) {
+            case OperatorToken.Plus: return ExpressionTree.Add;
+            case OperatorToken.Minus: return ExpressionTree.Subtract;
+            case OperatorToken.Mult: return ExpressionTree.Multiply;
+            case OperatorToken.Div: return ExpressionTree.Divide;
+            default: return ExpressionTree.BadOperator;
+        }
+    }
+}
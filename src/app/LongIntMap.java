@@ -0,0 +1,121 @@
+package app;
+
+import java.util.Arrays;
+
+/**
+ * LongIntMap is an open-addressing hash map from long keys to int values.
+ * It stores keys and values in parallel primitive arrays so lookups do not
+ * box or allocate.
+ *
+ * @author Mark Malyshev
+ * @author Yusuf Shakhpaz
+ * @author Georgia Karwhite
+ * @version June 2, 2025
+ */
+final class LongIntMap {
+    /**
+     * The value returned by get when a key is not in the map
+     */
+    static final int MISSING = -1;
+
+    /**
+     * The keys of the map, valid only where the matching slot is used
+     */
+    private long[] keys;
+
+    /**
+     * The values of the map, MISSING where a slot is free
+     */
+    private int[] values;
+
+    /**
+     * The number of keys in the map
+     */
+    private int size;
+
+    /**
+     * Creates an empty map
+     */
+    LongIntMap() {
+        keys = new long[16];
+        values = new int[16];
+        Arrays.fill(values, MISSING);
+    }
+
+    /**
+     * Gets the number of keys in the map
+     * @return the size of the map
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Gets the value stored for a key
+     * @param key the key to look up
+     * @return the value for the key, or MISSING if it is not present
+     */
+    int get(long key) {
+        int mask = keys.length - 1;
+        for (int slot = slotOf(key, mask); values[slot] != MISSING; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) {
+                return values[slot];
+            }
+        }
+        return MISSING;
+    }
+
+    /**
+     * Stores a non-negative value for a key, replacing any previous value
+     * @param key the key to store
+     * @param value the value to store
+     */
+    void put(long key, int value) {
+        if ((size + 1) * 2 > keys.length) {
+            grow();
+        }
+        int mask = keys.length - 1;
+        int slot = slotOf(key, mask);
+        while (values[slot] != MISSING) {
+            if (keys[slot] == key) {
+                values[slot] = value;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        size++;
+    }
+
+    /**
+     * Removes every key from the map
+     */
+    void clear() {
+        Arrays.fill(values, MISSING);
+        size = 0;
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new long[oldKeys.length * 2];
+        values = new int[oldValues.length * 2];
+        Arrays.fill(values, MISSING);
+        size = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldValues[i] != MISSING) {
+                put(oldKeys[i], oldValues[i]);
+            }
+        }
+    }
+
+    private static int slotOf(long key, int mask) {
+        // Mix the high bits into the low ones; CellKeys of neighbouring cells
+        // differ only in a few bits and would otherwise cluster
+        long h = key * 0x9E3779B97F4A7C15L;
+        h ^= h >>> 32;
+        h *= 0xFF51AFD7ED558CCDL;
+        return (int) (h ^ (h >>> 29)) & mask;
+    }
+}
@@ -0,0 +1,507 @@
+package app;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * RangeAggregates keeps running totals for the ranges read by aggregate
+ * functions, so a formula like SUM(A1:A100000) does not scan its range each
+ * time one of its cells changes. The totals are kept per column rather than
+ * per range, so overlapping ranges such as the running totals of
+ * B1 = SUM(A1:A1), B2 = SUM(A1:A2), ... share them. Each column read by a
+ * range has a Fenwick tree of the sum and count of its written cells, and
+ * segment trees for MIN and MAX, built the first time either is asked for.
+ * A changed cell updates its column in O(log n), and a range is answered in
+ * O(log n) per column it covers.
+ * <p>
+ * Columns are filled in by scanning them the first time a range over them
+ * is evaluated, and only down to the lowest row any range reads. The total
+ * number of rows tracked is capped; ranges that would go over the cap are
+ * scanned on every evaluation instead.
+ *
+ * @author Mark Malyshev
+ * @author Yusuf Shakhpaz
+ * @author Georgia Karwhite
+ * @version June 2, 2025
+ */
+final class RangeAggregates {
+    /**
+     * The most rows, summed over all columns, that may be tracked at once
+     */
+    static final int MaxTrackedRows = 1 << 22;
+
+    /**
+     * The spreadsheet whose cells are aggregated
+     */
+    private final Spreadsheet spreadsheet;
+
+    /**
+     * The number of rows of the spreadsheet
+     */
+    private final int rows;
+
+    /**
+     * The number of columns of the spreadsheet
+     */
+    private final int columnCount;
+
+    /**
+     * The id of the aggregate of each range
+     */
+    private final HashMap<RangeKey, Integer> ids = new HashMap<RangeKey, Integer>();
+
+    /**
+     * The top, left, bottom and right of the clamped range of each id, four
+     * entries to an id
+     */
+    private int[] bounds = new int[64];
+
+    /**
+     * The number of formulas reading the range of each id, 0 for free ids
+     */
+    private int[] readers = new int[16];
+
+    /**
+     * The ids that are free to be reused
+     */
+    private int[] freeIds = new int[16];
+
+    /**
+     * The number of entries of freeIds in use
+     */
+    private int freeCount;
+
+    /**
+     * The number of ids that have been handed out
+     */
+    private int allocated;
+
+    /**
+     * The number of ranges covering each column
+     */
+    private final int[] rangesPerColumn;
+
+    /**
+     * The number of rows each column has to track, one past the lowest row
+     * any of its ranges reads
+     */
+    private final int[] neededRows;
+
+    /**
+     * The sum of neededRows
+     */
+    private long trackedRows;
+
+    /**
+     * The totals of each column, or null for a column that no range reads or
+     * that has not been evaluated yet. A column is only stored here once it
+     * has been filled, and the slots are volatile, so a thread of a parallel
+     * recalculation that sees a column also sees its contents.
+     */
+    private final AtomicReferenceArray<Column> columns;
+
+    /**
+     * Creates a set of aggregates for a spreadsheet with none in it yet
+     * @param spreadsheet the spreadsheet whose cells are aggregated
+     * @param rows the number of rows of the spreadsheet
+     * @param columns the number of columns of the spreadsheet
+     */
+    RangeAggregates(Spreadsheet spreadsheet, int rows, int columns) {
+        this.spreadsheet = spreadsheet;
+        this.rows = rows;
+        this.columnCount = columns;
+        this.rangesPerColumn = new int[columns];
+        this.neededRows = new int[columns];
+        this.columns = new AtomicReferenceArray<Column>(columns);
+    }
+
+    /**
+     * Checks if there are no aggregates to keep up to date
+     * @return true if no ranges have aggregates
+     */
+    boolean isEmpty() {
+        return ids.isEmpty();
+    }
+
+    /**
+     * Gets the aggregate of a range for a formula that reads it, creating it
+     * if no other formula reads the same range
+     * @param first the CellKey of the top left cell of the range
+     * @param last the CellKey of the bottom right cell of the range
+     * @return the id of the aggregate, or -1 if tracking the range would go
+     *         over MaxTrackedRows
+     */
+    int acquire(long first, long last) {
+        RangeKey key = new RangeKey(first, last);
+        Integer id = ids.get(key);
+        if (id != null) {
+            readers[id]++;
+            return id;
+        }
+
+        int top = Math.max(CellKey.row(first), 0);
+        int left = Math.max(CellKey.column(first), 0);
+        int bottom = Math.min(CellKey.row(last), rows - 1);
+        int right = Math.min(CellKey.column(last), columnCount - 1);
+        long extra = 0;
+        for (int col = left; col <= right && top <= bottom; col++) {
+            extra += Math.max(bottom + 1 - neededRows[col], 0);
+        }
+        if (trackedRows + extra > MaxTrackedRows) {
+            return -1;
+        }
+        trackedRows += extra;
+        for (int col = left; col <= right && top <= bottom; col++) {
+            rangesPerColumn[col]++;
+            neededRows[col] = Math.max(neededRows[col], bottom + 1);
+        }
+
+        int newId = freeCount > 0 ? freeIds[--freeCount] : allocated++;
+        if (newId == readers.length) {
+            readers = Arrays.copyOf(readers, newId * 2);
+            bounds = Arrays.copyOf(bounds, newId * 8);
+        }
+        readers[newId] = 1;
+        bounds[newId * 4] = top;
+        bounds[newId * 4 + 1] = left;
+        bounds[newId * 4 + 2] = bottom;
+        bounds[newId * 4 + 3] = right;
+        ids.put(key, newId);
+        return newId;
+    }
+
+    /**
+     * Lets go of the aggregate of a range for a formula that no longer reads
+     * it, dropping the aggregate once no formula does. A column no range
+     * reads any more is dropped with it.
+     * @param first the CellKey of the top left cell of the range
+     * @param last the CellKey of the bottom right cell of the range
+     */
+    void release(long first, long last) {
+        RangeKey key = new RangeKey(first, last);
+        Integer id = ids.get(key);
+        if (id == null || --readers[id] > 0) {
+            return;
+        }
+        ids.remove(key);
+        int top = bounds[id * 4];
+        int bottom = bounds[id * 4 + 2];
+        for (int col = bounds[id * 4 + 1]; col <= bounds[id * 4 + 3] && top <= bottom; col++) {
+            if (--rangesPerColumn[col] == 0) {
+                trackedRows -= neededRows[col];
+                neededRows[col] = 0;
+                columns.set(col, null);
+            }
+        }
+        if (freeCount == freeIds.length) {
+            freeIds = Arrays.copyOf(freeIds, freeCount * 2);
+        }
+        freeIds[freeCount++] = id;
+    }
+
+    /**
+     * Applies an aggregate function to the range of an aggregate
+     * @param id the id of the aggregate
+     * @param function the function, such as ExpressionTree.Sum
+     * @return the result of the function, or 0 for AVG, MIN and MAX over a
+     *         range with no written cells
+     */
+    int evaluate(int id, int function) {
+        int top = bounds[id * 4];
+        int bottom = bounds[id * 4 + 2];
+        boolean trees = function == ExpressionTree.Min || function == ExpressionTree.Max;
+        long sum = 0;
+        int count = 0;
+        int min = Integer.MAX_VALUE;
+        int max = Integer.MIN_VALUE;
+        for (int col = bounds[id * 4 + 1]; col <= bounds[id * 4 + 3] && top <= bottom; col++) {
+            Column column = columnFor(col, trees);
+            count += column.count(top, bottom);
+            if (trees) {
+                min = Math.min(min, column.min(top, bottom));
+                max = Math.max(max, column.max(top, bottom));
+            } else {
+                sum += column.sum(top, bottom);
+            }
+        }
+        switch (function) {
+            case ExpressionTree.Sum: return (int) sum;
+            case ExpressionTree.Average: return count == 0 ? 0 : (int) (sum / count);
+            case ExpressionTree.Min: return count == 0 ? 0 : min;
+            case ExpressionTree.Max: return count == 0 ? 0 : max;
+            case ExpressionTree.Count: return count;
+            default: return 0;
+        }
+    }
+
+    /**
+     * Brings the totals of a cell's column up to date with its contents.
+     * This must be called after a cell changes and before any formula that
+     * reads it through a range is evaluated.
+     * @param row the row index of the cell
+     * @param col the column index of the cell
+     * @param value the value of the cell
+     * @param written whether the cell has a formula
+     */
+    void cellChanged(int row, int col, int value, boolean written) {
+        Column column = columns.get(col);
+        if (column != null && row < column.values.length) {
+            column.set(row, value, written);
+        }
+    }
+
+    /**
+     * Removes every aggregate
+     */
+    void clear() {
+        ids.clear();
+        Arrays.fill(readers, 0);
+        Arrays.fill(rangesPerColumn, 0);
+        Arrays.fill(neededRows, 0);
+        for (int col = 0; col < columnCount; col++) {
+            columns.set(col, null);
+        }
+        trackedRows = 0;
+        freeCount = 0;
+        allocated = 0;
+    }
+
+    /**
+     * Gets the totals of a column, filling them in or extending them down
+     * to the rows its ranges read first if needed
+     * @param col the column index
+     * @param trees true if the MIN and MAX trees are needed
+     * @return the totals of the column
+     */
+    private Column columnFor(int col, boolean trees) {
+        Column column = columns.get(col);
+        if (column == null || column.values.length < neededRows[col] || (trees && column.trees == null)) {
+            // Several threads may evaluate formulas reading the same column
+            synchronized (this) {
+                column = columns.get(col);
+                if (column == null || column.values.length < neededRows[col]) {
+                    column = fill(col, column);
+                    columns.set(col, column);
+                }
+                if (trees && column.trees == null) {
+                    column.buildTrees();
+                }
+            }
+        }
+        return column;
+    }
+
+    /**
+     * Fills in the totals of a column from the current contents of its cells
+     * @param col the column index
+     * @param old the totals filled in before, whose rows are kept, or null
+     * @return the new totals
+     */
+    private Column fill(int col, Column old) {
+        int from = old == null ? 0 : old.values.length;
+        // Grow by at least double, so filling a running total down a column
+        // does not copy the column once per row
+        Column column = new Column(Math.max(neededRows[col], Math.min(from * 2, rows)));
+        if (old != null) {
+            System.arraycopy(old.values, 0, column.values, 0, from);
+            System.arraycopy(old.written, 0, column.written, 0, old.written.length);
+        }
+        for (int row = from; row < column.values.length; row++) {
+            // This runs mid-recalculation, so it must not take the lock
+            if (spreadsheet.isWrittenAt(row, col)) {
+                column.values[row] = spreadsheet.valueAt(row, col);
+                column.written[row >>> 6] |= 1L << row;
+            }
+        }
+        column.buildSums();
+        return column;
+    }
+
+    /**
+     * RangeKey identifies a range by its corners
+     */
+    private static final class RangeKey {
+        private final long first;
+        private final long last;
+
+        private RangeKey(long first, long last) {
+            this.first = first;
+            this.last = last;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof RangeKey && ((RangeKey) other).first == first
+                    && ((RangeKey) other).last == last;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(first * 31 + last);
+        }
+    }
+
+    /**
+     * Column holds the running totals of the top rows of one column
+     */
+    private static final class Column {
+        /**
+         * The value of each written cell, or 0 for an empty one
+         */
+        private final int[] values;
+
+        /**
+         * One bit per cell, set if the cell is written
+         */
+        private final long[] written;
+
+        /**
+         * The Fenwick trees of the values and the written counts, with entry
+         * i covering the rows up to i - 1
+         */
+        private final long[] sums;
+        private final int[] counts;
+
+        /**
+         * The segment trees for MIN and MAX, or null until either is asked for
+         */
+        private volatile Trees trees;
+
+        private Column(int height) {
+            values = new int[height];
+            written = new long[(height + 63) >>> 6];
+            sums = new long[height + 1];
+            counts = new int[height + 1];
+        }
+
+        private boolean isWritten(int row) {
+            return (written[row >>> 6] & (1L << row)) != 0;
+        }
+
+        private void buildSums() {
+            for (int row = 0; row < values.length; row++) {
+                sums[row + 1] += values[row];
+                counts[row + 1] += isWritten(row) ? 1 : 0;
+                int parent = (row + 1) + ((row + 1) & -(row + 1));
+                if (parent <= values.length) {
+                    sums[parent] += sums[row + 1];
+                    counts[parent] += counts[row + 1];
+                }
+            }
+        }
+
+        private void set(int row, int value, boolean isWritten) {
+            boolean wasWritten = isWritten(row);
+            if (!isWritten) {
+                value = 0;
+            }
+            if (wasWritten == isWritten && values[row] == value) {
+                return;
+            }
+            long sumDelta = value - (long) values[row];
+            int countDelta = (isWritten ? 1 : 0) - (wasWritten ? 1 : 0);
+            for (int i = row + 1; i <= values.length; i += i & -i) {
+                sums[i] += sumDelta;
+                counts[i] += countDelta;
+            }
+            values[row] = value;
+            written[row >>> 6] ^= (wasWritten != isWritten ? 1L << row : 0);
+            Trees current = trees;
+            if (current != null) {
+                current.set(row, value, isWritten);
+            }
+        }
+
+        private long sum(int top, int bottom) {
+            long sum = 0;
+            for (int i = bottom + 1; i > 0; i -= i & -i) {
+                sum += sums[i];
+            }
+            for (int i = top; i > 0; i -= i & -i) {
+                sum -= sums[i];
+            }
+            return sum;
+        }
+
+        private int count(int top, int bottom) {
+            int count = 0;
+            for (int i = bottom + 1; i > 0; i -= i & -i) {
+                count += counts[i];
+            }
+            for (int i = top; i > 0; i -= i & -i) {
+                count -= counts[i];
+            }
+            return count;
+        }
+
+        private int min(int top, int bottom) {
+            return trees.query(top, bottom, true);
+        }
+
+        private int max(int top, int bottom) {
+            return trees.query(top, bottom, false);
+        }
+
+        private void buildTrees() {
+            Trees built = new Trees(values.length);
+            for (int row = 0; row < values.length; row++) {
+                if (isWritten(row)) {
+                    built.mins[built.leafBase + row] = values[row];
+                    built.maxes[built.leafBase + row] = values[row];
+                }
+            }
+            for (int node = built.leafBase - 1; node > 0; node--) {
+                built.mins[node] = Math.min(built.mins[2 * node], built.mins[2 * node + 1]);
+                built.maxes[node] = Math.max(built.maxes[2 * node], built.maxes[2 * node + 1]);
+            }
+            trees = built;
+        }
+    }
+
+    /**
+     * Trees holds the MIN and MAX segment trees of a column, with the root
+     * at index 1 and row i at index leafBase + i; empty cells hold the
+     * identity of each operation
+     */
+    private static final class Trees {
+        private final int leafBase;
+        private final int[] mins;
+        private final int[] maxes;
+
+        private Trees(int height) {
+            leafBase = Integer.highestOneBit(Math.max(height - 1, 1)) << 1;
+            mins = new int[leafBase * 2];
+            maxes = new int[leafBase * 2];
+            Arrays.fill(mins, Integer.MAX_VALUE);
+            Arrays.fill(maxes, Integer.MIN_VALUE);
+        }
+
+        private void set(int row, int value, boolean isWritten) {
+            int node = leafBase + row;
+            mins[node] = isWritten ? value : Integer.MAX_VALUE;
+            maxes[node] = isWritten ? value : Integer.MIN_VALUE;
+            for (node >>>= 1; node > 0; node >>>= 1) {
+                mins[node] = Math.min(mins[2 * node], mins[2 * node + 1]);
+                maxes[node] = Math.max(maxes[2 * node], maxes[2 * node + 1]);
+            }
+        }
+
+        private int query(int top, int bottom, boolean isMin) {
+            int[] tree = isMin ? mins : maxes;
+            int result = isMin ? Integer.MAX_VALUE : Integer.MIN_VALUE;
+            for (int low = leafBase + top, high = leafBase + bottom + 1; low < high;
+                    low >>>= 1, high >>>= 1) {
+                if ((low & 1) != 0) {
+                    int value = tree[low++];
+                    result = isMin ? Math.min(result, value) : Math.max(result, value);
+                }
+                if ((high & 1) != 0) {
+                    int value = tree[--high];
+                    result = isMin ? Math.min(result, value) : Math.max(result, value);
+                }
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,322 @@
+package app;
+
+import java.util.Arrays;
+
+/**
+ * RangeIndex finds the formulas whose ranges cover a cell. Each column has
+ * its own interval tree over rows, and a range is entered into the tree of
+ * every column it spans. The trees are treaps kept in shared int arrays,
+ * with each entry also holding the highest row of its subtree, so a lookup
+ * only visits the entries that could cover the row and costs O(log n) plus
+ * the number of entries found.
+ *
+ * @author Mark Malyshev
+ * @author Yusuf Shakhpaz
+ * @author Georgia Karwhite
+ * @version June 2, 2025
+ */
+final class RangeIndex {
+    private static final int None = -1;
+
+    /**
+     * The root entry of the tree of each column
+     */
+    private final int[] roots;
+
+    /**
+     * The top row of each entry's range
+     */
+    private int[] lows = new int[16];
+
+    /**
+     * The bottom row of each entry's range
+     */
+    private int[] highs = new int[16];
+
+    /**
+     * The highest bottom row in each entry's subtree
+     */
+    private int[] maxHighs = new int[16];
+
+    /**
+     * The graph node of the formula that reads each entry's range
+     */
+    private int[] owners = new int[16];
+
+    /**
+     * The random heap priority of each entry, which keeps the trees balanced
+     */
+    private int[] priorities = new int[16];
+
+    /**
+     * The left child of each entry; for free entries, the next free entry
+     */
+    private int[] lefts = new int[16];
+
+    /**
+     * The right child of each entry
+     */
+    private int[] rights = new int[16];
+
+    /**
+     * The number of entries that have been handed out
+     */
+    private int allocated;
+
+    /**
+     * The first entry of the free list
+     */
+    private int free = None;
+
+    /**
+     * The number of entries in the trees
+     */
+    private int size;
+
+    /**
+     * The state of the priority generator
+     */
+    private int seed = 0x2545F491;
+
+    /**
+     * The owners found by the last lookup
+     */
+    private int[] found = new int[8];
+
+    /**
+     * The number of owners found by the last lookup
+     */
+    private int foundCount;
+
+    /**
+     * Creates an empty index
+     * @param columns the number of columns of the spreadsheet; ranges are
+     *                cut off at the last column
+     */
+    RangeIndex(int columns) {
+        roots = new int[columns];
+        Arrays.fill(roots, None);
+    }
+
+    /**
+     * Checks if the index has no ranges
+     * @return true if no ranges have been added
+     */
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Adds a range read by a formula
+     * @param owner the graph node of the formula
+     * @param first the CellKey of the top left cell of the range
+     * @param last the CellKey of the bottom right cell of the range
+     */
+    void add(int owner, long first, long last) {
+        int low = CellKey.row(first);
+        int high = CellKey.row(last);
+        int right = Math.min(CellKey.column(last), roots.length - 1);
+        for (int col = Math.max(CellKey.column(first), 0); col <= right; col++) {
+            roots[col] = insert(roots[col], newEntry(low, high, owner));
+            size++;
+        }
+    }
+
+    /**
+     * Removes a range added with add
+     * @param owner the graph node of the formula
+     * @param first the CellKey of the top left cell of the range
+     * @param last the CellKey of the bottom right cell of the range
+     */
+    void remove(int owner, long first, long last) {
+        int low = CellKey.row(first);
+        int high = CellKey.row(last);
+        int right = Math.min(CellKey.column(last), roots.length - 1);
+        for (int col = Math.max(CellKey.column(first), 0); col <= right; col++) {
+            roots[col] = delete(roots[col], low, owner, high);
+        }
+    }
+
+    /**
+     * Finds the formulas whose ranges cover a cell, leaving them in found
+     * @param row the row index of the cell
+     * @param col the column index of the cell
+     * @return the number of owners found; a formula with several ranges
+     *         covering the cell is found once for each
+     */
+    int lookup(int row, int col) {
+        foundCount = 0;
+        if (col >= 0 && col < roots.length) {
+            stab(roots[col], row);
+        }
+        return foundCount;
+    }
+
+    /**
+     * Gets the owners found by the last lookup
+     * @return the owners; only the first lookup() entries are valid and the
+     *         array must not be modified
+     */
+    int[] found() {
+        return found;
+    }
+
+    /**
+     * Removes every range from the index
+     */
+    void clear() {
+        Arrays.fill(roots, None);
+        allocated = 0;
+        free = None;
+        size = 0;
+    }
+
+    private void stab(int entry, int row) {
+        while (entry != None && maxHighs[entry] >= row) {
+            stab(lefts[entry], row);
+            if (lows[entry] > row) {
+                // Everything to the right starts even lower down
+                return;
+            }
+            if (highs[entry] >= row) {
+                if (foundCount == found.length) {
+                    found = Arrays.copyOf(found, foundCount * 2);
+                }
+                found[foundCount++] = owners[entry];
+            }
+            entry = rights[entry];
+        }
+    }
+
+    private int insert(int root, int entry) {
+        if (root == None) {
+            return entry;
+        }
+        if (compare(lows[entry], owners[entry], highs[entry], root) < 0) {
+            lefts[root] = insert(lefts[root], entry);
+            if (priorities[lefts[root]] > priorities[root]) {
+                root = rotateRight(root);
+            }
+        } else {
+            rights[root] = insert(rights[root], entry);
+            if (priorities[rights[root]] > priorities[root]) {
+                root = rotateLeft(root);
+            }
+        }
+        update(root);
+        return root;
+    }
+
+    private int delete(int root, int low, int owner, int high) {
+        if (root == None) {
+            return None;
+        }
+        int order = compare(low, owner, high, root);
+        if (order < 0) {
+            lefts[root] = delete(lefts[root], low, owner, high);
+        } else if (order > 0) {
+            rights[root] = delete(rights[root], low, owner, high);
+        } else {
+            int merged = merge(lefts[root], rights[root]);
+            lefts[root] = free;
+            free = root;
+            size--;
+            return merged;
+        }
+        update(root);
+        return root;
+    }
+
+    /**
+     * Joins two trees where every entry of the first sorts before every
+     * entry of the second
+     */
+    private int merge(int first, int second) {
+        if (first == None) {
+            return second;
+        }
+        if (second == None) {
+            return first;
+        }
+        if (priorities[first] > priorities[second]) {
+            rights[first] = merge(rights[first], second);
+            update(first);
+            return first;
+        }
+        lefts[second] = merge(first, lefts[second]);
+        update(second);
+        return second;
+    }
+
+    private int rotateRight(int entry) {
+        int child = lefts[entry];
+        lefts[entry] = rights[child];
+        rights[child] = entry;
+        update(entry);
+        return child;
+    }
+
+    private int rotateLeft(int entry) {
+        int child = rights[entry];
+        rights[entry] = lefts[child];
+        lefts[child] = entry;
+        update(entry);
+        return child;
+    }
+
+    private void update(int entry) {
+        int max = highs[entry];
+        if (lefts[entry] != None) {
+            max = Math.max(max, maxHighs[lefts[entry]]);
+        }
+        if (rights[entry] != None) {
+            max = Math.max(max, maxHighs[rights[entry]]);
+        }
+        maxHighs[entry] = max;
+    }
+
+    /**
+     * Orders entries by top row, then owner, then bottom row
+     */
+    private int compare(int low, int owner, int high, int entry) {
+        if (low != lows[entry]) {
+            return low < lows[entry] ? -1 : 1;
+        }
+        if (owner != owners[entry]) {
+            return owner < owners[entry] ? -1 : 1;
+        }
+        return Integer.compare(high, highs[entry]);
+    }
+
+    private int newEntry(int low, int high, int owner) {
+        int entry;
+        if (free != None) {
+            entry = free;
+            free = lefts[entry];
+        } else {
+            if (allocated == lows.length) {
+                int capacity = allocated * 2;
+                lows = Arrays.copyOf(lows, capacity);
+                highs = Arrays.copyOf(highs, capacity);
+                maxHighs = Arrays.copyOf(maxHighs, capacity);
+                owners = Arrays.copyOf(owners, capacity);
+                priorities = Arrays.copyOf(priorities, capacity);
+                lefts = Arrays.copyOf(lefts, capacity);
+                rights = Arrays.copyOf(rights, capacity);
+            }
+            entry = allocated++;
+        }
+        // Xorshift is random enough to keep the treaps balanced
+        seed ^= seed << 13;
+        seed ^= seed >>> 17;
+        seed ^= seed << 5;
+        lows[entry] = low;
+        highs[entry] = high;
+        maxHighs[entry] = high;
+        owners[entry] = owner;
+        priorities[entry] = seed;
+        lefts[entry] = None;
+        rights[entry] = None;
+        return entry;
+    }
+}
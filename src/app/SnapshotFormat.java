@@ -0,0 +1,362 @@
+package app;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * SnapshotFormat reads and writes spreadsheets as compact binary snapshots.
+ * A snapshot holds everything needed to reopen a sheet without parsing or
+ * recalculating anything:
+ * <pre>
+ * int magic, int version, int rows, int cols
+ * int formulaCount, then for each distinct formula:
+ *     int byteLength, UTF-8 text,
+ *     int codeLength (-1 if it has no expression tree), int[] code,
+ *     int referenceCount, long[] references,
+ *     int rangeCount, long[] ranges (two corner keys per range), int stackDepth
+ * int cellCount, then four arrays of cellCount entries:
+ *     long[] keys, int[] formulaIndex (-1 for none), int[] values, byte[] flags
+ * </pre>
+ * Snapshots are read through a memory mapping, so the file is never copied
+ * into the heap as a whole. Paging cells in lazily is out of scope: reading
+ * still builds a Cell and a graph node for every cell up front, though the
+ * compiled code of a formula is shared by every cell that holds it. What a
+ * snapshot saves over the text format is the parsing and recalculation.
+ * Everything read from the file is checked before it is used, so a
+ * corrupt snapshot fails to load instead of loading broken cells.
+ *
+ * @author Mark Malyshev
+ * @author Yusuf Shakhpaz
+ * @author Georgia Karwhite
+ * @version June 2, 2025
+ */
+final class SnapshotFormat {
+    private static final int Magic = 0x53534E50;
+    private static final int Version = 2;
+    private static final byte CircularFlag = 1;
+
+    private SnapshotFormat() {
+    }
+
+    /**
+     * Writes a snapshot of a spreadsheet to a file, replacing the file in one
+     * step once everything has been written
+     * @param spreadsheet the spreadsheet to write
+     * @param path the file to write to
+     * @throws IOException if the file cannot be written
+     */
+    static void write(Spreadsheet spreadsheet, Path path) throws IOException {
+        // Collect the non-empty cells and number their distinct formulas
+        long[] plainKeys = spreadsheet.plainValueKeys();
+        int slotCount = spreadsheet.cellSlots();
+        long[] keys = new long[slotCount + plainKeys.length];
+        Cell[] cells = new Cell[keys.length];
+        int[] formulaIndexes = new int[keys.length];
+        int found = 0;
+        HashMap<String, Integer> formulaIds = new HashMap<String, Integer>();
+        ArrayList<Cell> formulaCells = new ArrayList<Cell>();
+        for (int i = 0; i < slotCount + plainKeys.length; i++) {
+            long key = i < slotCount ? spreadsheet.keyAt(i) : plainKeys[i - slotCount];
+            Cell cell = i < slotCount ? spreadsheet.cellAt(i) : spreadsheet.plainCellAt(key);
+            if (cell == null || (cell.getFormula().isEmpty() && cell.getValue() == 0)) {
+                continue;
+            }
+            int formulaIndex = -1;
+            if (!cell.getFormula().isEmpty()) {
+                Integer id = formulaIds.get(cell.getFormula());
+                if (id == null) {
+                    id = formulaCells.size();
+                    formulaIds.put(cell.getFormula(), id);
+                    formulaCells.add(cell);
+                }
+                formulaIndex = id;
+            }
+            keys[found] = key;
+            cells[found] = cell;
+            formulaIndexes[found] = formulaIndex;
+            found++;
+        }
+        int cellCount = found;
+
+        FileReplacer.replace(path, file -> {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                ChannelOutput out = new ChannelOutput(channel);
+                out.putInt(Magic);
+                out.putInt(Version);
+                out.putInt(spreadsheet.getNumberOfRows());
+                out.putInt(spreadsheet.getNumberOfColumns());
+
+                out.putInt(formulaCells.size());
+                for (Cell cell : formulaCells) {
+                    writeFormula(cell, out);
+                }
+
+                out.putInt(cellCount);
+                for (int i = 0; i < cellCount; i++) {
+                    out.putLong(keys[i]);
+                }
+                for (int i = 0; i < cellCount; i++) {
+                    out.putInt(formulaIndexes[i]);
+                }
+                for (int i = 0; i < cellCount; i++) {
+                    out.putInt(cells[i].getValue());
+                }
+                for (int i = 0; i < cellCount; i++) {
+                    out.putByte(cells[i].isCircular() ? CircularFlag : 0);
+                }
+                out.flush();
+            }
+        });
+    }
+
+    private static void writeFormula(Cell cell, ChannelOutput out) throws IOException {
+        byte[] text = cell.getFormula().getBytes(StandardCharsets.UTF_8);
+        out.putInt(text.length);
+        out.putBytes(text);
+
+        ExpressionTree tree = cell.getExpressionTree();
+        int[] code = tree == null ? null : tree.code();
+        if (code == null) {
+            out.putInt(-1);
+            return;
+        }
+        out.putInt(code.length);
+        for (int word : code) {
+            out.putInt(word);
+        }
+        long[] references = tree.references();
+        out.putInt(references.length);
+        for (long key : references) {
+            out.putLong(key);
+        }
+        long[] ranges = tree.ranges();
+        out.putInt(ranges.length / 2);
+        for (long key : ranges) {
+            out.putLong(key);
+        }
+        out.putInt(tree.stackDepth());
+    }
+
+    /**
+     * Reads a snapshot written by write. Cells get the formulas, compiled
+     * code and values stored in the snapshot, so nothing is parsed or
+     * recalculated.
+     * @param path the file to read
+     * @return the spreadsheet stored in the snapshot
+     * @throws IOException if the file cannot be read or is not a snapshot
+     */
+    static Spreadsheet read(Path path) throws IOException {
+        MappedByteBuffer in;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Snapshot is too large to map: " + path);
+            }
+            in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        try {
+            if (in.getInt() != Magic) {
+                throw new IOException("Not a spreadsheet snapshot: " + path);
+            }
+            int version = in.getInt();
+            if (version != Version) {
+                throw new IOException("Unsupported snapshot version " + version + ": " + path);
+            }
+            int rows = in.getInt();
+            int cols = in.getInt();
+            if (rows <= 0 || cols <= 0) {
+                throw new IOException("Bad spreadsheet size in " + path + ": " + rows + "," + cols);
+            }
+            Spreadsheet spreadsheet = new Spreadsheet(rows, cols);
+
+            int formulaCount = in.getInt();
+            String[] formulas = new String[formulaCount];
+            int[][] codes = new int[formulaCount][];
+            long[][] references = new long[formulaCount][];
+            long[][] ranges = new long[formulaCount][];
+            int[] stackDepths = new int[formulaCount];
+            for (int f = 0; f < formulaCount; f++) {
+                byte[] text = new byte[in.getInt()];
+                in.get(text);
+                formulas[f] = new String(text, StandardCharsets.UTF_8);
+                int codeLength = in.getInt();
+                if (codeLength < 0) {
+                    continue;
+                }
+                codes[f] = new int[codeLength];
+                in.asIntBuffer().get(codes[f]);
+                in.position(in.position() + codeLength * Integer.BYTES);
+                references[f] = new long[in.getInt()];
+                in.asLongBuffer().get(references[f]);
+                in.position(in.position() + references[f].length * Long.BYTES);
+                ranges[f] = new long[in.getInt() * 2];
+                in.asLongBuffer().get(ranges[f]);
+                in.position(in.position() + ranges[f].length * Long.BYTES);
+                stackDepths[f] = in.getInt();
+                if (!isValidCode(codes[f], references[f], ranges[f], stackDepths[f])) {
+                    throw new IOException("Corrupt formula " + formulas[f] + " in " + path);
+                }
+            }
+
+            // The cell arrays are read in place, one entry of each per cell
+            int cellCount = in.getInt();
+            int keys = in.position();
+            int formulaIndexes = keys + cellCount * Long.BYTES;
+            int values = formulaIndexes + cellCount * Integer.BYTES;
+            int flags = values + cellCount * Integer.BYTES;
+            for (int i = 0; i < cellCount; i++) {
+                long key = in.getLong(keys + i * Long.BYTES);
+                int f = in.getInt(formulaIndexes + i * Integer.BYTES);
+                int row = CellKey.row(key);
+                int col = CellKey.column(key);
+                if (row < 0 || row >= rows || col < 0 || col >= cols || f < -1 || f >= formulaCount) {
+                    throw new IOException("Corrupt cell " + i + " in " + path);
+                }
+                ExpressionTree tree = f < 0 || codes[f] == null ? null
+                        : ExpressionTree.fromCode(codes[f], references[f], ranges[f],
+                                stackDepths[f]);
+                spreadsheet.stageCompiled(row, col, f < 0 ? "" : formulas[f], tree,
+                        in.getInt(values + i * Integer.BYTES),
+                        (in.get(flags + i) & CircularFlag) != 0);
+            }
+            return spreadsheet;
+        } catch (RuntimeException e) {
+            // A truncated or corrupt file shows up as a buffer or index error
+            throw new IOException("Corrupt spreadsheet snapshot: " + path, e);
+        }
+    }
+
+    /**
+     * Checks that compiled code only uses the references and ranges stored
+     * with it, and leaves exactly one operand on a stack of the stored depth
+     * @param code the compiled instructions
+     * @param references the CellKeys of the cells the code reads
+     * @param ranges the corner CellKeys of the ranges the code aggregates
+     * @param stackDepth the most operands the code claims to have at once
+     * @return true if the code can be run safely
+     */
+    private static boolean isValidCode(int[] code, long[] references, long[] ranges, int stackDepth) {
+        for (long key : references) {
+            if (CellKey.row(key) < 0 || CellKey.column(key) < 0) {
+                return false;
+            }
+        }
+        for (int i = 0; i < ranges.length; i += 2) {
+            if (CellKey.row(ranges[i]) < 0 || CellKey.column(ranges[i]) < 0
+                    || CellKey.row(ranges[i]) > CellKey.row(ranges[i + 1])
+                    || CellKey.column(ranges[i]) > CellKey.column(ranges[i + 1])) {
+                return false;
+            }
+        }
+
+        // Every operand takes at least two words of code, which also keeps
+        // a corrupt depth from asking for a huge operand stack
+        if (stackDepth < 1 || stackDepth > code.length) {
+            return false;
+        }
+        int depth = 0;
+        int pc = 0;
+        while (pc < code.length) {
+            switch (code[pc]) {
+                case ExpressionTree.PushLiteral:
+                    if (pc + 1 >= code.length) {
+                        return false;
+                    }
+                    pc += 2;
+                    depth++;
+                    break;
+                case ExpressionTree.PushCell:
+                    if (pc + 1 >= code.length || code[pc + 1] < 0 || code[pc + 1] >= references.length) {
+                        return false;
+                    }
+                    pc += 2;
+                    depth++;
+                    break;
+                case ExpressionTree.Aggregate:
+                    if (pc + 2 >= code.length || code[pc + 1] < ExpressionTree.Sum
+                            || code[pc + 1] > ExpressionTree.Count
+                            || code[pc + 2] < 0 || code[pc + 2] * 2 >= ranges.length) {
+                        return false;
+                    }
+                    pc += 3;
+                    depth++;
+                    break;
+                case ExpressionTree.Add:
+                case ExpressionTree.Subtract:
+                case ExpressionTree.Multiply:
+                case ExpressionTree.Divide:
+                case ExpressionTree.BadOperator:
+                    if (depth < 2) {
+                        return false;
+                    }
+                    pc++;
+                    depth--;
+                    break;
+                default:
+                    return false;
+            }
+            if (depth > stackDepth) {
+                return false;
+            }
+        }
+        return pc == code.length && depth == 1;
+    }
+
+    /**
+     * ChannelOutput buffers primitive writes to a FileChannel
+     */
+    private static class ChannelOutput {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16);
+
+        private ChannelOutput(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        private void putInt(int value) throws IOException {
+            ensure(Integer.BYTES);
+            buffer.putInt(value);
+        }
+
+        private void putLong(long value) throws IOException {
+            ensure(Long.BYTES);
+            buffer.putLong(value);
+        }
+
+        private void putByte(byte value) throws IOException {
+            ensure(1);
+            buffer.put(value);
+        }
+
+        private void putBytes(byte[] bytes) throws IOException {
+            int offset = 0;
+            while (offset < bytes.length) {
+                ensure(1);
+                int length = Math.min(buffer.remaining(), bytes.length - offset);
+                buffer.put(bytes, offset, length);
+                offset += length;
+            }
+        }
+
+        private void ensure(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                flush();
+            }
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+}
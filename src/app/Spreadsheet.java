@@ -1,14 +1,34 @@
 package app;
 
-import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
-import java.util.LinkedList;
-import java.util.Stack;
-import java.util.Queue;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.locks.StampedLock;
 
 /**
  * Spreadsheet holds all the functionality for a spreadsheet and manages
  * the data and updates for all the cells.
+ * <p>
+ * One thread at a time may edit the spreadsheet, while any number of threads
+ * read values with getCellValue and getCellFormula. An edit holds a write
+ * lock until it has been fully recalculated, and a batch holds it from
+ * beginBatch to commitBatch or abortBatch, so readers only ever see the values from
+ * before or after an edit. Reads are optimistic and take no lock unless an
+ * edit is running. Listeners are told about an edit after the lock is
+ * released. Cell objects themselves are not guarded, so they should only be
+ * used by the editing thread.
  * 
  * @author Mark Malyshev
  * @author Yusuf Shakhpaz
@@ -16,6 +36,44 @@ import java.util.Queue;
  * @version June 2, 2025
  */
 public class Spreadsheet implements SpreadsheetInterface {
+    /**
+     * The fewest cells in a wave of a recalculation that are worth spreading
+     * across a pool; smaller waves are evaluated on the editing thread
+     */
+    private static final int MinParallelWave = 512;
+
+    /**
+     * The start of the formula of a cell whose input could not be parsed,
+     * which is followed by the input
+     */
+    static final String ErrorPrefix = "ERROR: ";
+
+    /**
+     * Returned by stagePlainValue for input that is not a plain number
+     */
+    private static final int NotPlain = -2;
+
+    /**
+     * The most cells the background recalculation evaluates before it lets
+     * readers in and checks for newer edits
+     */
+    private static final int BackgroundSlice = 2048;
+
+    /**
+     * The number of cells a single pool task evaluates without splitting
+     */
+    private static final int WaveGrain = 128;
+
+    /**
+     * The number of distinct formulas whose compiled form is remembered
+     */
+    private static final int FormulaCacheSize = 4096;
+
+    /**
+     * A function for aggregate that returns 1 if the range holds a circular
+     * cell and 0 otherwise
+     */
+    private static final int CircularSearch = -1;
 
     /**
      * The number of rows in the spreadsheet
@@ -27,15 +85,152 @@ public class Spreadsheet implements SpreadsheetInterface {
      */ 
     private int theNumberOfColumns;
 
-    /** 
-     * The cells in the spreadsheet
+    /**
+     * The cells that have been written, indexed by their node in theGraph.
+     * A cell is only created when it is first written, so an empty region of
+     * the spreadsheet takes no memory; entries are null for nodes that are
+     * only referenced by formulas.
+     */
+    private Cell[] theNodeCells;
+
+    /**
+     * The column-wise store of cell values, or null if each Cell keeps its
+     * own value
+     */
+    private ColumnStore theColumnStore;
+
+    /**
+     * The formula dependencies between the cells in the spreadsheet
+     */
+    private DependencyGraph theGraph;
+
+    /**
+     * The operand stack reused by every formula evaluation
+     */
+    private int[] theOperandStack = new int[16];
+
+    /**
+     * The trace notified of evaluations, or null if tracing is off
+     */
+    private EvaluationTrace theTrace;
+
+    /**
+     * The pool that large recalculations are spread across, or null to
+     * recalculate on the editing thread only
+     */
+    private ForkJoinPool thePool;
+
+    /**
+     * The listeners told about the cells that change with each edit
+     */
+    private CopyOnWriteArrayList<SpreadsheetListener> theListeners;
+
+    /**
+     * The cells changed by the edit in progress
+     */
+    private ChangeBuffer theChanges;
+
+    /**
+     * The compiled forms of recently entered formulas
+     */
+    private FormulaCache theFormulaCache;
+
+    /**
+     * The lexer that splits entered formulas into tokens
+     */
+    private FormulaLexer theLexer;
+
+    /**
+     * The parser that compiles entered formulas
+     */
+    private FormulaParser theParser;
+
+    /**
+     * The lock that keeps readers from seeing an edit half done
+     */
+    private final StampedLock theLock = new StampedLock();
+
+    /**
+     * The thread holding the write lock, or null if no edit is running
+     */
+    private volatile Thread theWriter;
+
+    /**
+     * The stamp of the write lock while theWriter holds it
+     */
+    private long theWriteStamp;
+
+    /**
+     * How many writes theWriter has begun and not yet ended
+     */
+    private int theWriteDepth;
+
+    /**
+     * The running aggregates of the ranges read by formulas
+     */
+    private RangeAggregates theAggregates;
+
+    /**
+     * The CellKeys of the cells in the circular error state, so a range is
+     * checked against them rather than searched for circular cells
+     */
+    private final HashSet<Long> theCircularKeys = new HashSet<>();
+
+    /**
+     * How many calls to beginBatch have not been committed yet
+     */
+    private int theBatchDepth;
+
+    /**
+     * The graph nodes of the cells edited in the current batch
+     */
+    private int[] theBatchNodes = new int[16];
+
+    /**
+     * The number of entries of theBatchNodes in use
+     */
+    private int theBatchCount;
+
+    /**
+     * The formula and value of each cell edited in the current batch from
+     * before its first edit, by CellKey, so abortBatch can put them back
+     */
+    private final HashMap<Long, Cell> theBatchOriginals = new HashMap<>();
+
+    /**
+     * The thread that recalculates formulas given to submitFormula, or null
+     * until the first one is submitted
+     */
+    private ExecutorService theRecalculator;
+
+    /**
+     * Formulas given to submitFormula that the background recalculation has
+     * not picked up yet, by CellKey; a newer formula for a cell replaces the
+     * one waiting
+     */
+    private final LinkedHashMap<Long, String> thePendingEdits = new LinkedHashMap<>();
+
+    /**
+     * The graph nodes the background recalculation still has to evaluate
+     * when it starts over
+     */
+    private int[] theDirtyNodes = new int[16];
+
+    /**
+     * The number of entries of theDirtyNodes in use
+     */
+    private int theDirtyCount;
+
+    /**
+     * Counts the edits made, so the background recalculation can tell that
+     * the order it is working through may be out of date
      */
-    private Cell[][] theCells;
+    private int theEditCount;
 
     /**
-     * The UI for the spreadsheet
+     * Counts the calls to clear, after which the nodes of an order are gone
      */
-    private SpreadsheetUI ui;
+    private int theClearCount;
 
     /**
      * A constructor that creates a new spreadsheet with the given dimensions
@@ -43,23 +238,34 @@ public class Spreadsheet implements SpreadsheetInterface {
      * @param theNumberOfColumns the width of the spreadsheet
      */
     public Spreadsheet(int theNumberOfRows, int theNumberOfColumns) {
-        this.theNumberOfRows = theNumberOfRows;
-        this.theNumberOfColumns = theNumberOfColumns;
-        theCells = new Cell[theNumberOfRows][theNumberOfColumns];
-        initializeCells();
+        this(theNumberOfRows, theNumberOfColumns, false);
     }
 
     /**
-     * Itializes any cells if this spreadsheet contains pre-entered values/data
+     * A constructor that creates a new spreadsheet with the given dimensions,
+     * optionally keeping cell values in per-column arrays. Columnar values
+     * are faster to read down a column. A cell holding a plain number then
+     * takes no Cell or graph node at all, only its slot in the column arrays,
+     * unless a formula reads it; formula cells keep a Cell that holds the
+     * formula and reads its value from the column arrays.
+     * @param theNumberOfRows the height of the spreadsheet
+     * @param theNumberOfColumns the width of the spreadsheet
+     * @param columnarValues true to keep values in per-column arrays
      */
-    private void initializeCells() {
-        for (int i = 0; i < theNumberOfRows; i++) {
-            for (int j = 0; j < theNumberOfColumns; j++) {
-                theCells[i][j] = new Cell();
-                theCells[i][j].setFormula(""); // Explicitly set empty
-                theCells[i][j].setValue(0);
-            }
+    public Spreadsheet(int theNumberOfRows, int theNumberOfColumns, boolean columnarValues) {
+        this.theNumberOfRows = theNumberOfRows;
+        this.theNumberOfColumns = theNumberOfColumns;
+        theNodeCells = new Cell[16];
+        if (columnarValues) {
+            theColumnStore = new ColumnStore(theNumberOfRows, theNumberOfColumns);
         }
+        theGraph = new DependencyGraph(theNumberOfColumns);
+        theAggregates = new RangeAggregates(this, theNumberOfRows, theNumberOfColumns);
+        theListeners = new CopyOnWriteArrayList<SpreadsheetListener>();
+        theChanges = new ChangeBuffer();
+        theFormulaCache = new FormulaCache(FormulaCacheSize);
+        theLexer = new FormulaLexer();
+        theParser = new FormulaParser();
     }
 
     /**
@@ -79,310 +285,1561 @@ public class Spreadsheet implements SpreadsheetInterface {
     }
 
     /**
-     * Returns the data as a 2D array of cells
+     * Returns the data as a 2D array of cells. The array is built on each
+     * call: written cells are the live Cell objects, and every other entry is
+     * a new empty Cell that is not part of the spreadsheet. This takes time
+     * and memory for the whole grid, so prefer getCell or findCell.
      * @return a 2D array of the cells in this spreadsheet
      */
     public Cell[][] getCells() {
-        return theCells;
+        long stamp = lockForRead();
+        try {
+            Cell[][] cells = new Cell[theNumberOfRows][theNumberOfColumns];
+            for (int i = 0; i < theNumberOfRows; i++) {
+                for (int j = 0; j < theNumberOfColumns; j++) {
+                    Cell cell = lookupCell(i, j);
+                    cells[i][j] = cell != null ? cell : new Cell();
+                }
+            }
+            return cells;
+        } finally {
+            unlockForRead(stamp);
+        }
     }
 
     /**
-     * Gets the cell at the given location
+     * Gets the cell at the given location, creating it if it has never been
+     * written
      * @param row the row of the cell
      * @param col the column of the cell
      * @return the cell at the location
      */
     public Cell getCell(int row, int col) {
-        if (row >= 0 && row < theNumberOfRows && col >= 0 && col < theNumberOfColumns) {
-            return theCells[row][col];
+        if (!validateCoordinates(row, col)) {
+            return null;
+        }
+        beginWrite();
+        try {
+            return materialize(theGraph.addNode(CellKey.of(row, col)));
+        } finally {
+            endWrite();
         }
-        return null;
     }
 
     /**
-     * Gets the the formula for the cell at the given indices
-     * @param row the row index of the cell
-     * @param col the column index of the cell
-     * @return a String representation fo the cell's formula
+     * Gets the cell at the given location if it has been written, without
+     * creating it otherwise. Like the other single-cell reads, it first reads
+     * without a lock and only takes the read lock if an edit got in the way.
+     * A thread that is editing already holds the write lock, so it never gets
+     * an optimistic stamp and reads directly.
+     * @param row the row of the cell
+     * @param col the column of the cell
+     * @return the cell at the location, or null if it is empty
      */
-    public String getCellFormula(int row, int col) {
-        if (row >= 0 && row < theNumberOfRows && col >= 0 && col < theNumberOfColumns) {
-            return theCells[row][col].getFormula();
+    public Cell findCell(int row, int col) {
+        if (!validateCoordinates(row, col)) {
+            return null;
+        }
+        long stamp = theLock.tryOptimisticRead();
+        if (stamp != 0) {
+            try {
+                Cell cell = lookupCell(row, col);
+                if (theLock.validate(stamp)) {
+                    return cell;
+                }
+            } catch (RuntimeException e) {
+                // An edit moved the arrays mid-read; read again below
+            }
+        }
+        stamp = lockForRead();
+        try {
+            return lookupCell(row, col);
+        } finally {
+            unlockForRead(stamp);
         }
-        return null;
     }
 
     /**
-     * Replaces the current UI with a new UI
-     * @param ui the new UI to pair the spreadsheet with
+     * Gets the value of the cell at the given indices without creating it
+     * @param row the row index of the cell
+     * @param col the column index of the cell
+     * @return the value of the cell, or 0 if it is empty or out of range
      */
-    public void setUI(SpreadsheetUI ui) {
-        this.ui = ui;
+    public int getCellValue(int row, int col) {
+        if (!validateCoordinates(row, col)) {
+            return 0;
+        }
+        long stamp = theLock.tryOptimisticRead();
+        if (stamp != 0) {
+            try {
+                int value = lookupValue(row, col);
+                if (theLock.validate(stamp)) {
+                    return value;
+                }
+            } catch (RuntimeException e) {
+                // An edit moved the arrays mid-read; read again below
+            }
+        }
+        stamp = lockForRead();
+        try {
+            return lookupValue(row, col);
+        } finally {
+            unlockForRead(stamp);
+        }
     }
 
-    
-    private void notifyUI() {
-        if (ui != null) {
-            ui.refreshTable();
+    /**
+     * Gets the the formula for the cell at the given indices
+     * @param row the row index of the cell
+     * @param col the column index of the cell
+     * @return a String representation fo the cell's formula
+     */
+    public String getCellFormula(int row, int col) {
+        if (!validateCoordinates(row, col)) {
+            return null;
+        }
+        long stamp = theLock.tryOptimisticRead();
+        if (stamp != 0) {
+            try {
+                String formula = lookupFormula(row, col);
+                if (theLock.validate(stamp)) {
+                    return formula;
+                }
+            } catch (RuntimeException e) {
+                // An edit moved the arrays mid-read; read again below
+            }
+        }
+        stamp = lockForRead();
+        try {
+            return lookupFormula(row, col);
+        } finally {
+            unlockForRead(stamp);
         }
     }
 
     /**
-     * Sets the cell formula at the given indices
+     * Gets the text a table shows for a cell. The text is read under the
+     * read lock, since Cell formats it once and keeps it.
      * @param row the row index of the cell
      * @param col the column index of the cell
-     * @param input the new formula
+     * @return the value of the cell as text, an error message, or an empty
+     *         String if the cell has no formula
      */
-    public void setCellFormula(int row, int col, String input) {
-        if (!validateCoordinates(row, col))
-            return;
-
-        Cell cell = theCells[row][col];
-        cell.setFormula(input);
-
+    public String getCellText(int row, int col) {
+        if (!validateCoordinates(row, col)) {
+            return "";
+        }
+        long stamp = lockForRead();
         try {
-            // Try to parse as simple number first
-            cell.setValue(Integer.parseInt(input));
-            cell.setExpressionTree(null);
-        } catch (NumberFormatException e) {
-            // Try as expression
-            Stack<Token> postfix = convertToPostfix(input);
-            if (postfix == null || postfix.isEmpty()) {
-                cell.setValue(0);
-                cell.setFormula("ERROR: " + input);
-            } else {
-                ExpressionTree tree = new ExpressionTree();
-                tree.buildTree(postfix);
-                cell.setExpressionTree(tree);
-                cell.evaluate(this); // Evaluate immediately
-            }
+            Cell cell = lookupCell(row, col);
+            return cell == null ? "" : cell.getDisplayText();
+        } finally {
+            unlockForRead(stamp);
         }
-
-        evaluateAllCells();
-        notifyUI();
     }
 
-    private boolean validateCoordinates(int row, int col) {
-        return row >= 0 && row < theNumberOfRows && col >= 0 && col < theNumberOfColumns;
+    private Cell lookupCell(int row, int col) {
+        int node = theGraph.nodeOf(CellKey.of(row, col));
+        Cell cell = node == LongIntMap.MISSING ? null : cellOf(node);
+        if (cell == null && theColumnStore != null && theColumnStore.isWritten(row, col)) {
+            // A plain number, which has no Cell of its own
+            return plainCell(row, col);
+        }
+        return cell;
     }
 
-    private Stack<Token> convertToPostfix(String infix) {
-        Stack<Token> output = new Stack<>();
-        Stack<OperatorToken> operators = new Stack<>();
-        int index = 0;
+    private int lookupValue(int row, int col) {
+        if (theColumnStore != null) {
+            return theColumnStore.get(row, col);
+        }
+        Cell cell = lookupCell(row, col);
+        return cell == null ? 0 : cell.getValue();
+    }
 
-        while (index < infix.length()) {
-            char ch = infix.charAt(index);
+    private String lookupFormula(int row, int col) {
+        Cell cell = lookupCell(row, col);
+        return cell == null ? "" : cell.getFormula();
+    }
 
-            // Skip whitespace
-            if (Character.isWhitespace(ch)) {
-                index++;
-                continue;
-            }
+    /**
+     * Takes the read lock for a longer read, unless this thread is the one
+     * editing
+     * @return the stamp to pass to unlockForRead
+     */
+    private long lockForRead() {
+        return theWriter == Thread.currentThread() ? 0 : theLock.readLock();
+    }
 
-            if (OperatorToken.isOperator(ch)) {
-                // Handle operators
-                OperatorToken currentOp = new OperatorToken(ch);
-                while (!operators.isEmpty()) {
-                    OperatorToken top = operators.peek();
-                    if (top.getOperatorToken() != OperatorToken.LeftParen && top.priority() >= currentOp.priority()) {
-                        output.push(operators.pop());
-                    } else {
-                        break;
-                    }
-                }
-                operators.push(currentOp);
-                index++;
-            } else if (ch == ')') {
-                // Handle right parenthesis
-                while (!operators.isEmpty()) {
-                    OperatorToken op = operators.pop();
-                    if (op.getOperatorToken() == OperatorToken.LeftParen) {
-                        break;
-                    }
-                    output.push(op);
-                }
-                index++;
-            } else if (Character.isDigit(ch)) {
-                // Parse numbers
-                int value = 0;
-                while (index < infix.length() && Character.isDigit(infix.charAt(index))) {
-                    value = value * 10 + (infix.charAt(index++) - '0');
-                }
-                output.push(new LiteralToken(value));
-            } else if (Character.isUpperCase(ch)) {
-                // Parse cell references
-                CellToken.ParseResult result = CellToken.parseFrom(infix, index);
-                if (result.token.getRow() != CellToken.BadCell) {
-                    output.push(result.token);
-                    index = result.nextIndex;
-                } else {
-                    output.clear();
-                    return output; // Invalid cell reference
-                }
-            } else {
-                output.clear();
-                return output; // Invalid character
-            }
+    private void unlockForRead(long stamp) {
+        if (stamp != 0) {
+            theLock.unlockRead(stamp);
         }
+    }
 
-        // Add remaining operators
-        while (!operators.isEmpty()) {
-            output.push(operators.pop());
+    /**
+     * Takes the write lock, unless this thread already holds it for an edit
+     * or batch it is in the middle of
+     */
+    private void beginWrite() {
+        if (theWriter == Thread.currentThread()) {
+            theWriteDepth++;
+            return;
         }
+        theWriteStamp = theLock.writeLock();
+        theWriter = Thread.currentThread();
+        theWriteDepth = 1;
+    }
 
-        return output;
+    /**
+     * Ends a write begun with beginWrite, releasing the lock when the
+     * outermost write ends
+     */
+    private void endWrite() {
+        if (--theWriteDepth == 0) {
+            theWriter = null;
+            theLock.unlockWrite(theWriteStamp);
+        }
     }
 
-    private ExpressionTree buildExpressionTree(Stack<Token> postfix) {
-        ExpressionTree tree = new ExpressionTree();
-        
-        // Make a copy of the stack to avoid modifying the original
-        Stack<Token> postfixCopy = new Stack<>();
-        postfixCopy.addAll(postfix);
-        
-        tree.buildTree(postfixCopy);
-        return tree;
+    /**
+     * Adds a listener to be told which cells change with each edit
+     * @param listener the listener to add
+     */
+    public void addSpreadsheetListener(SpreadsheetListener listener) {
+        theListeners.add(listener);
     }
 
-   
+    /**
+     * Removes a listener added with addSpreadsheetListener
+     * @param listener the listener to remove
+     */
+    public void removeSpreadsheetListener(SpreadsheetListener listener) {
+        theListeners.remove(listener);
+    }
 
-    private void evaluateAllCells() {
-        // 1. Build dependency graph
-        // 2. Perform topological sort
-        Queue<Cell> aQ = topologicalSort();
+    /**
+     * Sets the trace to notify as cells are recalculated
+     * @param trace the trace to use, or null to turn tracing off
+     */
+    public void setEvaluationTrace(EvaluationTrace trace) {
+        this.theTrace = trace;
+    }
 
-        // 3. Evaluate cells in order
-        while (aQ.size() > 0) {
-            aQ.remove().evaluate(this);
-        }
+    /**
+     * Sets the pool used to recalculate large edits in parallel. Cells that
+     * depend on an edit are grouped into waves that only read from earlier
+     * waves, and each large wave is split across the pool. While a pool is
+     * set, an EvaluationTrace may be called from several threads at once.
+     * The pool is only used by setCellFormula, setCellValue and batches;
+     * formulas given to submitFormula are recalculated on the background
+     * thread alone, since it works in small slices that are not worth
+     * splitting.
+     * @param pool the pool to use, or null to recalculate on the editing
+     *             thread only
+     */
+    public void setRecalculationPool(ForkJoinPool pool) {
+        this.thePool = pool;
     }
 
     /**
-     * Sets the value of the cell at the given indices
-     * @param row the row index of the cell
-     * @param col the column index of the cell
-     * @param inputValue the new value
+     * Takes the cells changed by the last edit out of theChanges
+     * @return the changes, or null if nothing changed
      */
-    public void setCellValue(int row, int col, String inputValue) {
-        if (row >= 0 && row < theNumberOfRows && col >= 0 && col < theNumberOfColumns) {
-            int inputIntValue = Integer.parseInt(inputValue);
-            theCells[row][col].setValue(inputIntValue);
-            notifyUI();
-        }
+    private CellChangeEvent takeChanges() {
+        return theChanges.isEmpty() ? null : theChanges.drain();
     }
 
     /**
-     * Clears all the cells in the spreadsheet
+     * Tells the listeners about the cells changed by the last edit. This is
+     * called once the write lock is released, so listeners can read the
+     * spreadsheet from any thread.
+     * @param event the changes, or null if nothing changed
      */
-    public void clear() {
-        for (int i = 0; i < theNumberOfRows; i++) {
-            for (int j = 0; j < theNumberOfColumns; j++) {
-                theCells[i][j].clear();
-            }
+    private void fireCellsChanged(CellChangeEvent event) {
+        if (event == null) {
+            return;
+        }
+        for (SpreadsheetListener listener : theListeners) {
+            listener.cellsChanged(event);
         }
-        notifyUI();
     }
 
     /**
-     * Saves the current spreadsheet data to spreadsheet.txt
+     * Sets the cell formula at the given indices
+     * @param row the row index of the cell
+     * @param col the column index of the cell
+     * @param input the new formula
      */
-    public void save() {
+    public void setCellFormula(int row, int col, String input) {
+        if (!validateCoordinates(row, col))
+            return;
+
+        CellChangeEvent event = null;
+        beginWrite();
         try {
-            FileWriter writer = new FileWriter("spreadsheet.txt");
-            writer.write(theNumberOfRows + "," + theNumberOfColumns + "\n");
-        
-            for (int i = 0; i < theNumberOfRows; i++) {
-                for (int j = 0; j < theNumberOfColumns; j++) {
-                    Cell cell = theCells[i][j];
-                    String formula = cell.getFormula();
-                    int value = cell.getValue();
-                    writer.write(i + "," + j + "," + formula + "," + value + "\n");
+            if (theBatchDepth > 0) {
+                rememberOriginal(row, col);
+            }
+            int node = stageFormula(row, col, input);
+            theChanges.add(row, col);
+            if (theBatchDepth > 0) {
+                if (node >= 0) {
+                    addToBatch(node);
+                }
+            } else {
+                if (node >= 0) {
+                    recalculateFrom(node);
                 }
+                event = takeChanges();
             }
-            writer.close();
-            System.out.println("Spreadsheet saved to spreadsheet.txt");
-        } catch (java.io.IOException e) {
-            System.out.println("Error saving spreadsheet: " + e.getMessage());
+        } finally {
+            endWrite();
         }
+        fireCellsChanged(event);
     }
 
+    /**
+     * Starts a batch of edits. Until the matching commitBatch, setCellFormula
+     * and setCellValue only store the new contents; the affected cells are
+     * recalculated once, and the listeners told once, when the batch is
+     * committed. Batches may be nested, in which case only the outermost
+     * commit recalculates. The batch holds the write lock until it is
+     * committed, so other threads cannot edit in the meantime and only see
+     * the values from before the batch.
+     * <p>
+     * Every beginBatch must be matched by commitBatch or abortBatch, even if
+     * the edits in between throw, or the sheet stays locked:
+     * <pre>
+     * spreadsheet.beginBatch();
+     * try {
+     *     ... edits ...
+     * } catch (RuntimeException e) {
+     *     spreadsheet.abortBatch();
+     *     throw e;
+     * }
+     * spreadsheet.commitBatch();
+     * </pre>
+     */
+    public void beginBatch() {
+        beginWrite();
+        theBatchDepth++;
+    }
 
-    private LinkedList<LinkedList<Cell>> makeGraph() {
-        LinkedList<LinkedList<Cell>> graph = new LinkedList<LinkedList<Cell>>();
-        for (int r = 0; r < theNumberOfRows; r++) {
-            for (int c = 0; c < theNumberOfColumns; c++) {
-                LinkedList<Cell> edges = new LinkedList<Cell>();
-                edges.add(getCell(r, c));
-                //for all of the cell tokens in the expression tree, add edges
-                for (Cell cell : getCell(r, c).getCellDependencies()) {
-                    edges.add(cell);
+    /**
+     * Ends a batch started with beginBatch. When the outermost batch ends,
+     * every cell that depends on any cell edited in the batch is
+     * recalculated once, in dependency order, and the listeners get a single
+     * event listing all of the changed cells.
+     */
+    public void commitBatch() {
+        if (theWriter != Thread.currentThread() || theBatchDepth == 0) {
+            throw new IllegalStateException("commitBatch called without beginBatch");
+        }
+        CellChangeEvent event = null;
+        try {
+            theBatchDepth--;
+            if (theBatchDepth == 0) {
+                theBatchOriginals.clear();
+                int count = theBatchCount;
+                theBatchCount = 0;
+                if (count > 0) {
+                    recalculate(theGraph.dependentsInOrder(theBatchNodes, count), -1);
                 }
+                event = takeChanges();
             }
+        } finally {
+            endWrite();
         }
-        return graph;
+        fireCellsChanged(event);
     }
 
-    private LinkedList<CellNums> calcIndegree(LinkedList<LinkedList<Cell>> graph) {
-        LinkedList<CellNums> topNumbers = new LinkedList<CellNums>();
-        for (LinkedList<Cell> deps : graph) {
-            CellNums nums = new CellNums(deps.remove());
-            nums.myNumber = deps.size();
+    /**
+     * Ends a batch started with beginBatch, putting back the formula and
+     * value every cell edited since the outermost beginBatch had before it,
+     * even cells edited in enclosing batches. Otherwise it ends the batch
+     * like commitBatch: the outermost end recalculates and tells the
+     * listeners, and the write lock is released. Cells removed by a clear
+     * in the batch are not brought back.
+     */
+    public void abortBatch() {
+        if (theWriter != Thread.currentThread() || theBatchDepth == 0) {
+            throw new IllegalStateException("abortBatch called without beginBatch");
         }
-        return topNumbers;
-    }
-
-    private Queue<Cell> topologicalSort() {
-        //add item to queue when its indegree is zero
-        Queue<Cell> theQ = new LinkedList<Cell>();
-        LinkedList<LinkedList<Cell>> graph = makeGraph();
-        LinkedList<CellNums> indegrees = calcIndegree(graph);
-        
-        for (int i = 0; i < graph.size(); i ++) {
-            Cell current = findNewIndegreeZero(indegrees);
-            //adjust counts for adjacent cells
-            for (LinkedList<Cell> dependencies : graph) {
-                Iterator<Cell> walker = dependencies.iterator();
-                Cell node = walker.next(); //first one is the "parent" cell
-                while (walker.hasNext()) {
-                    Cell c = walker.next();
-                    if (c.equals(current)) {
-                        indegrees.get(indegrees.indexOf(c)).myNumber = indegrees.get(indegrees.indexOf(c)).myNumber - 1;
-                    }
-                }
+        try {
+            for (Map.Entry<Long, Cell> original : theBatchOriginals.entrySet()) {
+                int row = CellKey.row(original.getKey());
+                int col = CellKey.column(original.getKey());
+                restoreCell(row, col, original.getValue());
+                theChanges.add(row, col);
             }
-            theQ.add(current);
+        } finally {
+            theBatchOriginals.clear();
+            commitBatch();
         }
-        return theQ;
     }
 
-    private Cell findNewIndegreeZero(LinkedList<CellNums> theIndegrees) {
-        boolean okay = true;
-        Iterator<CellNums> walker = theIndegrees.iterator();
-        Cell c = null;
-        CellNums current = null;
-        while (c == null && walker.hasNext()) {
-            current = walker.next();
-            if (current.myNumber == 0) {
-                c = current.myCell;
-                theIndegrees.remove(current);
+    /**
+     * Remembers the contents of a cell the first time it is edited in a batch
+     * @param row the row index of the cell
+     * @param col the column index of the cell
+     */
+    private void rememberOriginal(int row, int col) {
+        Long key = CellKey.of(row, col);
+        if (!theBatchOriginals.containsKey(key)) {
+            Cell cell = lookupCell(row, col);
+            Cell original = new Cell();
+            if (cell != null) {
+                original.setFormula(cell.getFormula());
+                original.setValue(cell.getValue());
             }
+            theBatchOriginals.put(key, original);
         }
-        return c;
     }
 
-    private class CellNums {
-        public final Cell myCell;
-        public int myNumber;
-
-        public CellNums (Cell theCell) {
-            myCell = theCell;
-            myNumber = 0;
+    /**
+     * Stages the contents a cell had before a batch
+     * @param row the row index of the cell
+     * @param col the column index of the cell
+     * @param original the formula and value of the cell before the batch
+     */
+    private void restoreCell(int row, int col, Cell original) {
+        String formula = original.getFormula();
+        int node;
+        if (formula.isEmpty()) {
+            // Possibly a value given to setCellValue, which has no formula
+            stageCell(row, col, formula, original.getValue());
+            node = theGraph.nodeOf(CellKey.of(row, col));
+        } else {
+            // Parsing the input again gives back the same error text
+            node = stageFormula(row, col, formula.startsWith(ErrorPrefix)
+                    ? formula.substring(ErrorPrefix.length()) : formula);
         }
+        if (node >= 0) {
+            addToBatch(node);
+        }
+    }
 
-        @Override
-        public boolean equals(Object o) {
-            return myCell.equals(((CellNums) o).myCell);
+    /**
+     * Sets the formula of a cell and recalculates the spreadsheet on a
+     * background thread, so the caller does not wait for the recalculation.
+     * A formula submitted while an earlier recalculation is running
+     * supersedes it: the running recalculation stops after its current
+     * slice and starts over with the cells it had not reached plus the new
+     * edit. Listeners are told about each slice of changed cells as it is
+     * done, on the background thread, so readers may see a spreadsheet
+     * that is only partly recalculated until it catches up. The background
+     * thread does not use the pool given to setRecalculationPool. If staging
+     * a formula fails, the cell gets an error formula and the formulas
+     * submitted after it are still applied.
+     * @param row the row index of the cell
+     * @param col the column index of the cell
+     * @param input the new formula
+     */
+    public void submitFormula(int row, int col, String input) {
+        if (!validateCoordinates(row, col)) {
+            return;
+        }
+        ExecutorService recalculator;
+        synchronized (thePendingEdits) {
+            thePendingEdits.put(CellKey.of(row, col), input);
+            if (theRecalculator == null) {
+                theRecalculator = Executors.newSingleThreadExecutor(task -> {
+                    Thread thread = new Thread(task, "Spreadsheet recalculation");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+            }
+            recalculator = theRecalculator;
+        }
+        recalculator.execute(this::recalculatePending);
+    }
+
+    /**
+     * Waits until every formula given to submitFormula so far has been
+     * recalculated. This must not be called from a listener, which runs on
+     * the background thread itself.
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    public void awaitRecalculation() throws InterruptedException {
+        ExecutorService recalculator;
+        synchronized (thePendingEdits) {
+            recalculator = theRecalculator;
+        }
+        if (recalculator == null) {
+            return;
+        }
+        try {
+            recalculator.submit(() -> { }).get();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * Stages the submitted formulas and recalculates their dependents one
+     * slice at a time, holding the write lock only for a slice
+     */
+    private void recalculatePending() {
+        DependencyGraph.Order order = null;
+        int next = 0;
+        int edits = 0;
+        int clears = theClearCount;
+        while (true) {
+            CellChangeEvent event = null;
+            beginWrite();
+            try {
+                if (clears != theClearCount) {
+                    // The nodes of the order went away with the cells
+                    order = null;
+                    clears = theClearCount;
+                } else if (order != null && (edits != theEditCount || hasPendingEdits())) {
+                    // Superseded, so start over from wherever this pass got to
+                    markDirty(order.nodes, next, order.nodes.length);
+                    order = null;
+                }
+                if (order == null) {
+                    stagePendingEdits();
+                    if (theDirtyCount == 0) {
+                        return;
+                    }
+                    edits = theEditCount;
+                } else {
+                    int end = Math.min(next + BackgroundSlice, order.nodes.length);
+                    recalculateRun(order.nodes, next, end, order.sorted, -1);
+                    next = end;
+                }
+                event = takeChanges();
+            } finally {
+                endWrite();
+            }
+            fireCellsChanged(event);
+
+            if (order == null) {
+                // Sorting a large change takes a while, and only needs to
+                // keep other edits out, not readers
+                long stamp = theLock.readLock();
+                try {
+                    order = theGraph.dependentsInOrder(theDirtyNodes, theDirtyCount);
+                    theDirtyCount = 0;
+                    next = 0;
+                } finally {
+                    theLock.unlockRead(stamp);
+                }
+            } else if (next == order.nodes.length) {
+                order = null;
+            }
+        }
+    }
+
+    private boolean hasPendingEdits() {
+        synchronized (thePendingEdits) {
+            return !thePendingEdits.isEmpty();
+        }
+    }
+
+    /**
+     * Moves the submitted formulas into their cells and marks them dirty.
+     * Each formula is taken off the queue before it is staged, so one that
+     * fails cannot be tried again by every later recalculation.
+     */
+    private void stagePendingEdits() {
+        synchronized (thePendingEdits) {
+            Iterator<Map.Entry<Long, String>> edits = thePendingEdits.entrySet().iterator();
+            while (edits.hasNext()) {
+                Map.Entry<Long, String> edit = edits.next();
+                edits.remove();
+                int row = CellKey.row(edit.getKey());
+                int col = CellKey.column(edit.getKey());
+                int node;
+                try {
+                    node = stageFormula(row, col, edit.getValue());
+                } catch (RuntimeException e) {
+                    // Nobody is waiting for this edit to report the failure to
+                    stageCell(row, col, ErrorPrefix + edit.getValue(), 0);
+                    node = theGraph.nodeOf(edit.getKey());
+                }
+                theChanges.add(row, col);
+                if (node >= 0) {
+                    markDirty(new int[] { node }, 0, 1);
+                }
+            }
+        }
+    }
+
+    private void markDirty(int[] nodes, int from, int to) {
+        int count = theDirtyCount + to - from;
+        if (count > theDirtyNodes.length) {
+            theDirtyNodes = Arrays.copyOf(theDirtyNodes, Math.max(count, theDirtyCount * 2));
+        }
+        System.arraycopy(nodes, from, theDirtyNodes, theDirtyCount, to - from);
+        theDirtyCount = count;
+    }
+
+    private void addToBatch(int node) {
+        if (theBatchCount == theBatchNodes.length) {
+            theBatchNodes = Arrays.copyOf(theBatchNodes, theBatchCount * 2);
+        }
+        theBatchNodes[theBatchCount++] = node;
+    }
+
+    /**
+     * Parses a formula into a cell and links it into the dependency graph,
+     * without recalculating anything or telling the listeners
+     * @param row the row index of the cell, which must be valid
+     * @param col the column index of the cell, which must be valid
+     * @param input the new formula
+     * @return the graph node of the cell, or -1 if the cell is a plain
+     *         number kept only in the column store that nothing reads
+     */
+    int stageFormula(int row, int col, String input) {
+        theEditCount++;
+        if (theColumnStore != null) {
+            int node = stagePlainValue(row, col, input);
+            if (node != NotPlain) {
+                return node;
+            }
+        }
+        int node = theGraph.addNode(CellKey.of(row, col));
+        Cell cell = materialize(node);
+        setFormula(cell, row, col, input);
+
+        try {
+            // Try to parse as simple number first
+            cell.setValue(Integer.parseInt(input));
+            cell.setExpressionTree(null);
+        } catch (NumberFormatException e) {
+            ExpressionTree tree = null;
+            if (theLexer.tokenize(input)) {
+                // Reuse the compiled form of a formula seen before, if there is one
+                String key = FormulaCache.keyOf(theLexer, row, col);
+                tree = theFormulaCache.get(key, row, col);
+                if (tree == null) {
+                    tree = theParser.parse(theLexer);
+                    if (tree != null) {
+                        theFormulaCache.put(key, tree, row, col);
+                    }
+                }
+            }
+            if (tree == null) {
+                cell.setValue(0);
+                setFormula(cell, row, col, ErrorPrefix + input);
+            }
+            cell.setExpressionTree(tree);
+        }
+
+        updateDependencies(node, cell.getExpressionTree());
+        return node;
+    }
+
+    /**
+     * Stores a plain number in the column store without a Cell. Only a number
+     * written exactly as Integer.toString would write it is stored this way,
+     * so its formula text can be rebuilt from its value.
+     * @param row the row index of the cell, which must be valid
+     * @param col the column index of the cell, which must be valid
+     * @param input the new formula
+     * @return the graph node of the cell, -1 if the cell has none because
+     *         nothing reads it, or NotPlain if input is not a plain number
+     */
+    private int stagePlainValue(int row, int col, String input) {
+        int value;
+        try {
+            value = Integer.parseInt(input);
+        } catch (NumberFormatException e) {
+            return NotPlain;
+        }
+        if (!Integer.toString(value).equals(input)) {
+            return NotPlain;
+        }
+
+        long key = CellKey.of(row, col);
+        int node = theGraph.nodeOf(key);
+        if (node == LongIntMap.MISSING && theGraph.isCovered(key)) {
+            // A range reads the cell, so it needs a node to be found by
+            node = theGraph.addNode(key);
+        }
+        if (node != LongIntMap.MISSING) {
+            Cell cell = cellOf(node);
+            if (cell != null) {
+                trackCircular(node, cell.isCircular(), false);
+                theNodeCells[node] = null;
+                updateDependencies(node, null);
+            }
+        }
+        theColumnStore.set(row, col, value);
+        theColumnStore.setWritten(row, col, true);
+        if (!theAggregates.isEmpty()) {
+            // Column totals may track the cell even if no range covers it
+            theAggregates.cellChanged(row, col, value, true);
+        }
+        return node;
+    }
+
+    /**
+     * Stores a cell exactly as it was saved, without parsing its formula,
+     * recalculating anything or telling the listeners. This is used for cells
+     * whose formula is only text, such as an error message.
+     * @param row the row index of the cell, which must be valid
+     * @param col the column index of the cell, which must be valid
+     * @param formula the formula text of the cell
+     * @param value the value of the cell
+     */
+    void stageCell(int row, int col, String formula, int value) {
+        int node = theGraph.addNode(CellKey.of(row, col));
+        Cell cell = materialize(node);
+        setFormula(cell, row, col, formula);
+        cell.setValue(value);
+        cell.setExpressionTree(null);
+        updateDependencies(node, null);
+    }
+
+    /**
+     * Stores a cell whose formula was compiled and evaluated earlier, without
+     * parsing, recalculating anything or telling the listeners
+     * @param row the row index of the cell, which must be valid
+     * @param col the column index of the cell, which must be valid
+     * @param formula the formula text of the cell
+     * @param tree the compiled formula, or null if the cell has none
+     * @param value the value of the cell
+     * @param circular whether the cell is in the circular error state
+     */
+    void stageCompiled(int row, int col, String formula, ExpressionTree tree,
+            int value, boolean circular) {
+        int node = theGraph.addNode(CellKey.of(row, col));
+        Cell cell = materialize(node);
+        setFormula(cell, row, col, formula);
+        cell.setExpressionTree(tree);
+        cell.setValue(value);
+        trackCircular(node, cell.isCircular(), circular);
+        cell.setCircular(circular);
+        updateDependencies(node, tree);
+    }
+
+    /**
+     * Re-evaluates every formula in the spreadsheet in dependency order and
+     * tells the listeners that any cell may have changed. This is used after
+     * many cells were staged at once.
+     */
+    void recalculateAll() {
+        recalculate(theGraph.allInOrder(), -1);
+        theChanges.addAll();
+        fireCellsChanged(takeChanges());
+    }
+
+    /**
+     * Sets the formula of a cell, keeping the written bitmap of the column
+     * store in step with it
+     */
+    private void setFormula(Cell cell, int row, int col, String formula) {
+        cell.setFormula(formula);
+        if (theColumnStore != null) {
+            theColumnStore.setWritten(row, col, !formula.isEmpty());
+        }
+    }
+
+    private boolean validateCoordinates(int row, int col) {
+        return row >= 0 && row < theNumberOfRows && col >= 0 && col < theNumberOfColumns;
+    }
+
+    /**
+     * Replaces the edges of the given cell in the dependency graph with the
+     * cell references found in its new expression tree
+     * @param node the graph node of the cell whose formula changed
+     * @param tree the new expression tree of the cell, or null if it has none
+     */
+    private void updateDependencies(int node, ExpressionTree tree) {
+        long[] oldRanges = theGraph.rangesOf(node);
+        if (tree == null) {
+            theGraph.setPrecedents(node, new int[0], 0);
+            releaseAggregates(oldRanges);
+            theGraph.setRanges(node, new long[0]);
+            return;
+        }
+
+        long[] references = tree.references();
+        int[] nodes = new int[references.length];
+        int[] precedents = new int[references.length];
+        int count = 0;
+        for (int i = 0; i < references.length; i++) {
+            int row = CellKey.row(references[i]);
+            int col = CellKey.column(references[i]);
+            if (validateCoordinates(row, col)) {
+                nodes[i] = theGraph.addNode(references[i]);
+                precedents[count++] = nodes[i];
+            } else {
+                nodes[i] = LongIntMap.MISSING;
+            }
+        }
+        tree.bind(nodes);
+        theGraph.setPrecedents(node, precedents, count);
+
+        long[] ranges = tree.ranges();
+        if (ranges.length > 0) {
+            int[] aggregates = new int[ranges.length / 2];
+            for (int i = 0; i < aggregates.length; i++) {
+                aggregates[i] = theAggregates.acquire(ranges[i * 2], ranges[i * 2 + 1]);
+            }
+            tree.bindAggregates(aggregates);
+        }
+        // Released after the new ranges are acquired, so a range the formula
+        // still reads keeps its aggregate
+        releaseAggregates(oldRanges);
+        theGraph.setRanges(node, ranges);
+    }
+
+    private void releaseAggregates(long[] ranges) {
+        if (ranges != null) {
+            for (int i = 0; i < ranges.length; i += 2) {
+                theAggregates.release(ranges[i], ranges[i + 1]);
+            }
+        }
+    }
+
+    /**
+     * Re-evaluates the given cell and every cell that depends on it, directly
+     * or transitively. Cells outside of that set are not touched, and cells
+     * on or behind a circular reference are put in the circular error state.
+     * Dependents whose value or error state changes are recorded in theChanges;
+     * the caller records the edited cell itself.
+     * @param node the graph node of the cell that changed
+     */
+    private void recalculateFrom(int node) {
+        recalculate(theGraph.dependentsInOrder(node), node);
+    }
+
+    /**
+     * Re-evaluates sorted nodes, spreading large waves across the pool if
+     * there is one
+     * @param order the nodes to re-evaluate
+     * @param node the node of the edited cell, whose change is not recorded,
+     *             or -1 if there is none
+     */
+    private void recalculate(DependencyGraph.Order order, int node) {
+        ForkJoinPool pool = thePool;
+        if (pool == null || order.sorted < MinParallelWave) {
+            recalculateRun(order.nodes, 0, order.nodes.length, order.sorted, node);
+            return;
+        }
+
+        int start = 0;
+        for (int end : order.waveEnds) {
+            if (end - start < MinParallelWave) {
+                recalculateRun(order.nodes, start, end, order.sorted, node);
+            } else {
+                recalculateInParallel(pool, order.nodes, start, end, node);
+            }
+            start = end;
+        }
+        recalculateRun(order.nodes, order.sorted, order.nodes.length, order.sorted, node);
+    }
+
+    /**
+     * Re-evaluates a run of sorted nodes one after another on this thread
+     * @param nodes the sorted nodes, followed by the circular ones
+     * @param from the index of the first node to evaluate
+     * @param to the index just past the last node to evaluate
+     * @param sorted the number of nodes that were sorted
+     * @param edited the node of the edited cell, whose change is not recorded
+     */
+    private void recalculateRun(int[] nodes, int from, int to, int sorted, int edited) {
+        for (int i = from; i < to; i++) {
+            Cell cell = cellOf(nodes[i]);
+            if (cell == null) {
+                // Only referenced by formulas, so there is nothing to evaluate
+                continue;
+            }
+            int oldValue = cell.getValue();
+            boolean wasCircular = cell.isCircular();
+            theOperandStack = recalculateNode(nodes[i], i < sorted, theOperandStack);
+            trackCircular(nodes[i], wasCircular, cell.isCircular());
+            updateAggregates(nodes[i], cell);
+            if (nodes[i] != edited
+                    && (cell.getValue() != oldValue || cell.isCircular() != wasCircular)) {
+                long key = theGraph.keyOf(nodes[i]);
+                theChanges.add(CellKey.row(key), CellKey.column(key));
+            }
+        }
+    }
+
+    /**
+     * Re-evaluates the nodes of one wave across the threads of a pool. Nodes
+     * in a wave never read from each other, so they can run in any order.
+     * @param pool the pool to run on
+     * @param nodes the sorted nodes
+     * @param from the index of the first node of the wave
+     * @param to the index just past the last node of the wave
+     * @param edited the node of the edited cell, whose change is not recorded
+     */
+    private void recalculateInParallel(ForkJoinPool pool, int[] nodes, int from, int to, int edited) {
+        int[] oldValues = new int[to - from];
+        boolean[] wasCircular = new boolean[to - from];
+        for (int i = from; i < to; i++) {
+            Cell cell = cellOf(nodes[i]);
+            if (cell != null) {
+                oldValues[i - from] = cell.getValue();
+                wasCircular[i - from] = cell.isCircular();
+            }
+        }
+
+        pool.invoke(new WaveTask(nodes, from, to));
+
+        // The change buffer is not thread safe, so changes are recorded here
+        for (int i = from; i < to; i++) {
+            Cell cell = cellOf(nodes[i]);
+            if (cell != null) {
+                trackCircular(nodes[i], wasCircular[i - from], cell.isCircular());
+                updateAggregates(nodes[i], cell);
+            }
+            if (cell != null && nodes[i] != edited && (cell.getValue() != oldValues[i - from]
+                    || cell.isCircular() != wasCircular[i - from])) {
+                long key = theGraph.keyOf(nodes[i]);
+                theChanges.add(CellKey.row(key), CellKey.column(key));
+            }
+        }
+    }
+
+    /**
+     * Re-evaluates a single node, or puts it in the circular error state
+     * @param node the graph node of the cell
+     * @param sortable false if the node is on or behind a cycle
+     * @param stack the operand stack to evaluate with
+     * @return the operand stack, which is replaced by a larger one if the
+     *         cell's formula did not fit in the one given
+     */
+    private int[] recalculateNode(int node, boolean sortable, int[] stack) {
+        Cell cell = cellOf(node);
+        if (cell == null) {
+            return stack;
+        }
+        EvaluationTrace trace = theTrace;
+        if (sortable && !readsCircular(node)) {
+            cell.setCircular(false);
+            ExpressionTree tree = cell.getExpressionTree();
+            if (tree != null) {
+                if (stack.length < tree.stackDepth()) {
+                    stack = new int[tree.stackDepth()];
+                }
+                cell.evaluate(this, stack);
+                if (trace != null) {
+                    long key = theGraph.keyOf(node);
+                    trace.evaluated(CellKey.row(key), CellKey.column(key), cell);
+                }
+            }
+        } else {
+            cell.setCircular(true);
+            cell.setValue(0);
+            if (trace != null) {
+                long key = theGraph.keyOf(node);
+                trace.circular(CellKey.row(key), CellKey.column(key), cell);
+            }
+        }
+        return stack;
+    }
+
+    /**
+     * Checks if any cell read by the given node is in the circular error state
+     * @param node the graph node of the cell
+     * @return true if the cell reads from a circular cell
+     */
+    private boolean readsCircular(int node) {
+        for (int precedent : theGraph.precedentsOf(node)) {
+            Cell cell = cellOf(precedent);
+            if (cell != null && cell.isCircular()) {
+                return true;
+            }
+        }
+        if (!theCircularKeys.isEmpty()) {
+            ExpressionTree tree = cellOf(node).getExpressionTree();
+            long[] ranges = tree == null ? new long[0] : tree.ranges();
+            for (int i = 0; i < ranges.length; i += 2) {
+                if (rangeHasCircular(ranges[i], ranges[i + 1])) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks if any cell of a range is in the circular error state. There
+     * are usually far fewer circular cells than cells in a range, so each
+     * is checked against the range; a range smaller than that is searched.
+     * @param first the CellKey of the top left cell of the range
+     * @param last the CellKey of the bottom right cell of the range
+     * @return true if the range holds a circular cell
+     */
+    private boolean rangeHasCircular(long first, long last) {
+        long area = (long) (CellKey.row(last) - CellKey.row(first) + 1)
+                * (CellKey.column(last) - CellKey.column(first) + 1);
+        if (area < theCircularKeys.size()) {
+            return aggregate(CircularSearch, first, last) != 0;
+        }
+        for (long key : theCircularKeys) {
+            int row = CellKey.row(key);
+            int col = CellKey.column(key);
+            if (row >= CellKey.row(first) && row <= CellKey.row(last)
+                    && col >= CellKey.column(first) && col <= CellKey.column(last)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Tells the running aggregates of the ranges covering a cell about its
+     * current contents
+     * @param node the graph node of the cell
+     * @param cell the cell
+     */
+    private void updateAggregates(int node, Cell cell) {
+        if (!theAggregates.isEmpty()) {
+            long key = theGraph.keyOf(node);
+            theAggregates.cellChanged(CellKey.row(key), CellKey.column(key),
+                    cell.getValue(), !cell.getFormula().isEmpty());
+        }
+    }
+
+    /**
+     * Gets the result of an aggregate function from a running aggregate
+     * @param aggregate the RangeAggregates id of the range
+     * @param function the function, such as ExpressionTree.Sum
+     * @return the result of the function
+     */
+    int aggregateOf(int aggregate, int function) {
+        return theAggregates.evaluate(aggregate, function);
+    }
+
+    /**
+     * Keeps theCircularKeys up to date as a cell enters or leaves the
+     * circular error state. This is only called on the editing thread,
+     * between waves, so the threads of a wave only ever read the set.
+     * @param node the graph node of the cell
+     * @param wasCircular whether the cell was circular before
+     * @param isCircular whether the cell is circular now
+     */
+    private void trackCircular(int node, boolean wasCircular, boolean isCircular) {
+        if (wasCircular != isCircular) {
+            if (isCircular) {
+                theCircularKeys.add(theGraph.keyOf(node));
+            } else {
+                theCircularKeys.remove(theGraph.keyOf(node));
+            }
+        }
+    }
+
+    /**
+     * Applies an aggregate function to the written cells of a range. Empty
+     * cells are skipped, so only SUM counts them, as 0.
+     * @param function the function, such as ExpressionTree.Sum
+     * @param first the CellKey of the top left cell of the range
+     * @param last the CellKey of the bottom right cell of the range
+     * @return the result of the function, or 0 for AVG, MIN and MAX over a
+     *         range with no written cells
+     */
+    int aggregate(int function, long first, long last) {
+        int top = Math.max(CellKey.row(first), 0);
+        int left = Math.max(CellKey.column(first), 0);
+        int bottom = Math.min(CellKey.row(last), theNumberOfRows - 1);
+        int right = Math.min(CellKey.column(last), theNumberOfColumns - 1);
+        if (top > bottom || left > right) {
+            return 0;
+        }
+        if (function != CircularSearch && theColumnStore != null) {
+            return aggregateColumns(function, top, left, bottom, right);
+        }
+
+        // Look up each cell of a small range, or check each written cell
+        // against a range larger than the number of written cells
+        int height = bottom - top + 1;
+        long area = (long) height * (right - left + 1);
+        boolean byNode = area > theGraph.size();
+        int limit = byNode ? theGraph.size() : (int) area;
+        long sum = 0;
+        int count = 0;
+        int min = Integer.MAX_VALUE;
+        int max = Integer.MIN_VALUE;
+        for (int i = 0; i < limit; i++) {
+            int node;
+            if (byNode) {
+                long key = theGraph.keyOf(i);
+                int row = CellKey.row(key);
+                int col = CellKey.column(key);
+                node = row >= top && row <= bottom && col >= left && col <= right ? i : -1;
+            } else {
+                node = theGraph.nodeOf(CellKey.of(top + i % height, left + i / height));
+            }
+            Cell cell = node < 0 ? null : cellOf(node);
+            if (cell == null || cell.getFormula().isEmpty()) {
+                continue;
+            }
+            if (function == CircularSearch) {
+                if (cell.isCircular()) {
+                    return 1;
+                }
+                continue;
+            }
+            int value = valueOfNode(node);
+            sum += value;
+            count++;
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+        }
+
+        switch (function) {
+            case ExpressionTree.Sum: return (int) sum;
+            case ExpressionTree.Average: return count == 0 ? 0 : (int) (sum / count);
+            case ExpressionTree.Min: return count == 0 ? 0 : min;
+            case ExpressionTree.Max: return count == 0 ? 0 : max;
+            case ExpressionTree.Count: return count;
+            default: return 0;
+        }
+    }
+
+    /**
+     * Adds the written cells of a range to a collection, without creating
+     * any cells
+     * @param first the CellKey of the top left cell of the range
+     * @param last the CellKey of the bottom right cell of the range
+     * @param cells the collection to add the cells to
+     */
+    void collectWrittenCells(long first, long last, Collection<Cell> cells) {
+        int top = Math.max(CellKey.row(first), 0);
+        int left = Math.max(CellKey.column(first), 0);
+        int bottom = Math.min(CellKey.row(last), theNumberOfRows - 1);
+        int right = Math.min(CellKey.column(last), theNumberOfColumns - 1);
+        if (top > bottom || left > right) {
+            return;
+        }
+        long stamp = lockForRead();
+        try {
+            if (theColumnStore != null) {
+                collectColumnCells(top, left, bottom, right, cells);
+                return;
+            }
+            // Like aggregate, walk whichever is smaller: the range or the
+            // written cells
+            int height = bottom - top + 1;
+            long area = (long) height * (right - left + 1);
+            boolean byNode = area > theGraph.size();
+            int limit = byNode ? theGraph.size() : (int) area;
+            for (int i = 0; i < limit; i++) {
+                int node;
+                if (byNode) {
+                    long key = theGraph.keyOf(i);
+                    int row = CellKey.row(key);
+                    int col = CellKey.column(key);
+                    node = row >= top && row <= bottom && col >= left && col <= right ? i : -1;
+                } else {
+                    node = theGraph.nodeOf(CellKey.of(top + i % height, left + i / height));
+                }
+                Cell cell = node < 0 ? null : cellOf(node);
+                if (cell != null && !cell.getFormula().isEmpty()) {
+                    cells.add(cell);
+                }
+            }
+        } finally {
+            unlockForRead(stamp);
+        }
+    }
+
+    /**
+     * Adds the written cells of a range to a collection by walking the
+     * written bitmaps of the column store
+     */
+    private void collectColumnCells(int top, int left, int bottom, int right,
+            Collection<Cell> cells) {
+        for (int col = left; col <= right; col++) {
+            for (int chunkIndex = top >>> ColumnStore.ChunkBits;
+                    chunkIndex <= bottom >>> ColumnStore.ChunkBits; chunkIndex++) {
+                long[] bits = theColumnStore.writtenChunk(col, chunkIndex);
+                if (bits == null) {
+                    continue;
+                }
+                int base = chunkIndex << ColumnStore.ChunkBits;
+                int to = Math.min(bottom - base, ColumnStore.ChunkSize - 1);
+                for (int i = Math.max(top - base, 0); i <= to; i++) {
+                    if ((bits[i >>> 6] & (1L << i)) != 0) {
+                        cells.add(lookupCell(base + i, col));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Applies an aggregate function to a range straight from the chunks of
+     * the column store, using their written bitmaps to skip empty cells
+     */
+    private int aggregateColumns(int function, int top, int left, int bottom, int right) {
+        long sum = 0;
+        int count = 0;
+        int min = Integer.MAX_VALUE;
+        int max = Integer.MIN_VALUE;
+        for (int col = left; col <= right; col++) {
+            for (int chunkIndex = top >>> ColumnStore.ChunkBits;
+                    chunkIndex <= bottom >>> ColumnStore.ChunkBits; chunkIndex++) {
+                int[] chunk = theColumnStore.chunk(col, chunkIndex);
+                if (chunk == null) {
+                    continue;
+                }
+                long[] bits = theColumnStore.writtenChunk(col, chunkIndex);
+                int base = chunkIndex << ColumnStore.ChunkBits;
+                int to = Math.min(bottom - base, ColumnStore.ChunkSize - 1);
+                for (int i = Math.max(top - base, 0); i <= to; i++) {
+                    if ((bits[i >>> 6] & (1L << i)) != 0) {
+                        int value = chunk[i];
+                        sum += value;
+                        count++;
+                        min = Math.min(min, value);
+                        max = Math.max(max, value);
+                    }
+                }
+            }
+        }
+
+        switch (function) {
+            case ExpressionTree.Sum: return (int) sum;
+            case ExpressionTree.Average: return count == 0 ? 0 : (int) (sum / count);
+            case ExpressionTree.Min: return count == 0 ? 0 : min;
+            case ExpressionTree.Max: return count == 0 ? 0 : max;
+            case ExpressionTree.Count: return count;
+            default: return 0;
+        }
+    }
+
+    /**
+     * Checks if a cell has been written, without any locking
+     * @param row the row index of the cell
+     * @param col the column index of the cell
+     * @return true if the cell has a formula or number
+     */
+    boolean isWrittenAt(int row, int col) {
+        if (theColumnStore != null) {
+            return theColumnStore.isWritten(row, col);
+        }
+        int node = theGraph.nodeOf(CellKey.of(row, col));
+        Cell cell = node < 0 ? null : cellOf(node);
+        return cell != null && !cell.getFormula().isEmpty();
+    }
+
+    /**
+     * Gets the value of a cell, without any locking
+     * @param row the row index of the cell
+     * @param col the column index of the cell
+     * @return the value of the cell, or 0 if it is empty
+     */
+    int valueAt(int row, int col) {
+        if (theColumnStore != null) {
+            return theColumnStore.get(row, col);
+        }
+        int node = theGraph.nodeOf(CellKey.of(row, col));
+        Cell cell = node < 0 ? null : cellOf(node);
+        return cell == null ? 0 : cell.getValue();
+    }
+
+    /**
+     * Gets the value of the cell behind a dependency graph node
+     * @param node the graph node, or -1 for a cell outside of the spreadsheet
+     * @return the value of the cell, or 0 if there is no such cell
+     */
+    int valueOfNode(int node) {
+        if (node < 0) {
+            return 0;
+        }
+        if (theColumnStore != null) {
+            long key = theGraph.keyOf(node);
+            return theColumnStore.get(CellKey.row(key), CellKey.column(key));
+        }
+        Cell cell = cellOf(node);
+        return cell == null ? 0 : cell.getValue();
+    }
+
+    /**
+     * Gets the operand stack shared by formula evaluations, growing it if
+     * needed so no evaluation has to allocate its own
+     * @param depth the number of operands the evaluation needs room for
+     * @return a stack with room for at least depth operands
+     */
+    int[] operandStack(int depth) {
+        if (theOperandStack.length < depth) {
+            theOperandStack = new int[Math.max(depth, theOperandStack.length * 2)];
+        }
+        return theOperandStack;
+    }
+
+    private Cell cellOf(int node) {
+        return node < theNodeCells.length ? theNodeCells[node] : null;
+    }
+
+    /**
+     * Creates a Cell for a cell of the column store. A plain number kept
+     * only in the store gets its formula back from its value.
+     * @param row the row index of the cell
+     * @param col the column index of the cell
+     * @return the new cell, which is not linked into the spreadsheet
+     */
+    private Cell plainCell(int row, int col) {
+        Cell cell = new ColumnarCell(theColumnStore, row, col);
+        if (theColumnStore.isWritten(row, col)) {
+            cell.setFormula(Integer.toString(theColumnStore.get(row, col)));
+        }
+        return cell;
+    }
+
+    /**
+     * Gets the cell behind a dependency graph node, creating it if needed
+     * @param node the graph node of the cell
+     * @return the cell
+     */
+    private Cell materialize(int node) {
+        if (node >= theNodeCells.length) {
+            theNodeCells = Arrays.copyOf(theNodeCells,
+                    Math.max(node + 1, theNodeCells.length * 2));
+        }
+        Cell cell = theNodeCells[node];
+        if (cell == null) {
+            if (theColumnStore != null) {
+                long key = theGraph.keyOf(node);
+                cell = plainCell(CellKey.row(key), CellKey.column(key));
+            } else {
+                cell = new Cell();
+            }
+            theNodeCells[node] = cell;
+        }
+        return cell;
+    }
+
+    /**
+     * Sets the value of the cell at the given indices
+     * @param row the row index of the cell
+     * @param col the column index of the cell
+     * @param inputValue the new value
+     */
+    public void setCellValue(int row, int col, String inputValue) {
+        if (row >= 0 && row < theNumberOfRows && col >= 0 && col < theNumberOfColumns) {
+            int inputIntValue = Integer.parseInt(inputValue);
+            CellChangeEvent event = null;
+            beginWrite();
+            try {
+                if (theBatchDepth > 0) {
+                    rememberOriginal(row, col);
+                }
+                int node = theGraph.addNode(CellKey.of(row, col));
+                materialize(node).setValue(inputIntValue);
+                theChanges.add(row, col);
+                if (theBatchDepth > 0) {
+                    addToBatch(node);
+                } else {
+                    recalculateFrom(node);
+                    event = takeChanges();
+                }
+            } finally {
+                endWrite();
+            }
+            fireCellsChanged(event);
+        }
+    }
+
+    /**
+     * Clears all the cells in the spreadsheet, along with any formulas given
+     * to submitFormula that have not been recalculated yet
+     */
+    public void clear() {
+        CellChangeEvent event = null;
+        beginWrite();
+        try {
+            // Dropping the cells is enough; they are created again when written
+            theNodeCells = new Cell[16];
+            if (theColumnStore != null) {
+                theColumnStore.clear();
+            }
+            theGraph.clear();
+            theAggregates.clear();
+            theCircularKeys.clear();
+            theClearCount++;
+            theDirtyCount = 0;
+            synchronized (thePendingEdits) {
+                thePendingEdits.clear();
+            }
+            theChanges.addAll();
+            // Edits batched so far were to cells that no longer exist
+            theBatchCount = 0;
+            theBatchOriginals.clear();
+            if (theBatchDepth == 0) {
+                event = takeChanges();
+            }
+        } finally {
+            endWrite();
+        }
+        fireCellsChanged(event);
+    }
+
+    /**
+     * Saves the current spreadsheet data to spreadsheet.txt
+     */
+    public void save() {
+        try {
+            save(Path.of("spreadsheet.txt"));
+            System.out.println("Spreadsheet saved to spreadsheet.txt");
+        } catch (IOException e) {
+            System.out.println("Error saving spreadsheet: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Saves the non-empty cells of the spreadsheet to the given file. The
+     * file is replaced in one step once everything has been written, so a
+     * failed save leaves any previous file untouched.
+     * @param path the file to save to
+     * @throws IOException if the file cannot be written
+     */
+    public void save(Path path) throws IOException {
+        long stamp = lockForRead();
+        try {
+            TextFormat.write(this, path);
+        } finally {
+            unlockForRead(stamp);
+        }
+    }
+
+    /**
+     * Loads a spreadsheet written by save. The file is read in one pass and
+     * all formulas are linked before a single recalculation of the sheet.
+     * @param path the file to load
+     * @return a new spreadsheet with the saved size and cells
+     * @throws IOException if the file cannot be read or is not a saved
+     *                     spreadsheet
+     */
+    public static Spreadsheet load(Path path) throws IOException {
+        return TextFormat.read(path);
+    }
+
+    /**
+     * Saves a binary snapshot of the spreadsheet, including each formula's
+     * compiled form and every value, so it can be reopened with loadSnapshot
+     * without parsing or recalculating
+     * @param path the file to save to
+     * @throws IOException if the file cannot be written
+     */
+    public void saveSnapshot(Path path) throws IOException {
+        long stamp = lockForRead();
+        try {
+            SnapshotFormat.write(this, path);
+        } finally {
+            unlockForRead(stamp);
+        }
+    }
+
+    /**
+     * Loads a binary snapshot written by saveSnapshot. The file is memory
+     * mapped and read in place.
+     * @param path the file to load
+     * @return a new spreadsheet with the saved size, cells and values
+     * @throws IOException if the file cannot be read or is not a snapshot
+     */
+    public static Spreadsheet loadSnapshot(Path path) throws IOException {
+        return SnapshotFormat.read(path);
+    }
+
+    /**
+     * Gets the number of slots that cellAt and keyAt can be asked about
+     * @return one more than the highest slot in use
+     */
+    int cellSlots() {
+        return theGraph.size();
+    }
+
+    /**
+     * Gets the cell in a slot of the sparse cell storage
+     * @param slot the slot, from 0 to cellSlots() - 1
+     * @return the cell, or null if the slot is only referenced by formulas
+     */
+    Cell cellAt(int slot) {
+        return cellOf(slot);
+    }
+
+    /**
+     * Gets the coordinate of a slot of the sparse cell storage
+     * @param slot the slot, from 0 to cellSlots() - 1
+     * @return the CellKey of the slot
+     */
+    long keyAt(int slot) {
+        return theGraph.keyOf(slot);
+    }
+
+    /**
+     * Gets the cells holding a plain number that is kept only in the column
+     * store. These have no Cell, so cellAt does not see them.
+     * @return the CellKeys of the cells, column by column; empty unless the
+     *         spreadsheet has columnar values
+     */
+    long[] plainValueKeys() {
+        if (theColumnStore == null) {
+            return new long[0];
+        }
+        long[] keys = new long[16];
+        int count = 0;
+        for (int col = 0; col < theNumberOfColumns; col++) {
+            for (int chunkIndex = 0; chunkIndex << ColumnStore.ChunkBits < theNumberOfRows; chunkIndex++) {
+                long[] bits = theColumnStore.writtenChunk(col, chunkIndex);
+                if (bits == null) {
+                    continue;
+                }
+                for (int word = 0; word < bits.length; word++) {
+                    for (long rest = bits[word]; rest != 0; rest &= rest - 1) {
+                        int row = (chunkIndex << ColumnStore.ChunkBits) + word * 64
+                                + Long.numberOfTrailingZeros(rest);
+                        long key = CellKey.of(row, col);
+                        int node = theGraph.nodeOf(key);
+                        if (node >= 0 && cellOf(node) != null) {
+                            continue;
+                        }
+                        if (count == keys.length) {
+                            keys = Arrays.copyOf(keys, count * 2);
+                        }
+                        keys[count++] = key;
+                    }
+                }
+            }
+        }
+        return Arrays.copyOf(keys, count);
+    }
+
+    /**
+     * Gets a Cell for a cell returned by plainValueKeys
+     * @param key the CellKey of the cell
+     * @return a new Cell with the number as its formula and value
+     */
+    Cell plainCellAt(long key) {
+        return plainCell(CellKey.row(key), CellKey.column(key));
+    }
+
+    /**
+     * WaveTask evaluates part of a wave, splitting itself until each piece
+     * is small enough to run on one thread
+     */
+    private class WaveTask extends RecursiveAction {
+        private final int[] nodes;
+        private final int from;
+        private final int to;
+
+        private WaveTask(int[] nodes, int from, int to) {
+            this.nodes = nodes;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= WaveGrain) {
+                int[] stack = new int[16];
+                for (int i = from; i < to; i++) {
+                    stack = recalculateNode(nodes[i], true, stack);
+                }
+            } else {
+                int middle = (from + to) >>> 1;
+                invokeAll(new WaveTask(nodes, from, middle), new WaveTask(nodes, middle, to));
+            }
         }
     }
 }
@@ -1,5 +1,8 @@
 package app;
 
+import java.io.IOException;
+import java.nio.file.Path;
+
 public interface SpreadsheetInterface {
 
     /**
@@ -28,6 +31,22 @@ public interface SpreadsheetInterface {
      */
     public Cell getCell(int row, int col);
 
+    /**
+     * Gets a specific cell only if it has been written
+     * @param row the row index (0-based)
+     * @param col the column index (0-based)
+     * @return the Cell at the specified position, or null if it is empty
+     */
+    public Cell findCell(int row, int col);
+
+    /**
+     * Gets the value of a specific cell without creating it
+     * @param row the row index (0-based)
+     * @param col the column index (0-based)
+     * @return the value of the cell, or 0 if it is empty
+     */
+    public int getCellValue(int row, int col);
+
     /**
      * Gets the formula stored in a specific cell
      * @param row the row index (0-based)
@@ -37,10 +56,26 @@ public interface SpreadsheetInterface {
     public String getCellFormula(int row, int col);
 
     /**
-     * Sets the UI component for this spreadsheet
-     * @param ui the SpreadsheetUI instance to be notified of changes
+     * Gets the text a table shows for a specific cell
+     * @param row the row index (0-based)
+     * @param col the column index (0-based)
+     * @return the value of the cell as text, an error message, or an empty
+     *         String if the cell has no formula
+     */
+    public String getCellText(int row, int col);
+
+    /**
+     * Adds a listener to be told which cells change with each edit. A user
+     * interface such as SpreadsheetUI registers itself this way.
+     * @param listener the listener to add
+     */
+    public void addSpreadsheetListener(SpreadsheetListener listener);
+
+    /**
+     * Removes a listener added with addSpreadsheetListener
+     * @param listener the listener to remove
      */
-    public void setUI(SpreadsheetUI ui);
+    public void removeSpreadsheetListener(SpreadsheetListener listener);
 
     /**
      * Sets the formula for a specific cell
@@ -49,11 +84,42 @@ public interface SpreadsheetInterface {
      * @param formula the new formula to set
      */
     public void setCellValue(int row, int col, String formula);
+
+    /**
+     * Sets the formula for a specific cell and recalculates on a background
+     * thread, superseding a recalculation that is still running
+     * @param row the row index (0-based)
+     * @param col the column index (0-based)
+     * @param formula the new formula to set
+     */
+    public void submitFormula(int row, int col, String formula);
     
+    /**
+     * Starts a batch of edits that are recalculated together
+     */
+    public void beginBatch();
+
+    /**
+     * Ends a batch of edits, recalculating every affected cell once
+     */
+    public void commitBatch();
+
+    /**
+     * Ends a batch of edits, putting back the cells it edited
+     */
+    public void abortBatch();
+
     // Clear the spreadsheet
     public void clear();
 
     // Save the spreadsheet
     public void save();
 
+    /**
+     * Saves the non-empty cells of the spreadsheet to a file
+     * @param path the file to save to
+     * @throws IOException if the file cannot be written
+     */
+    public void save(Path path) throws IOException;
+
 }
@@ -0,0 +1,31 @@
+package app;
+
+/**
+ * A SpreadsheetListener is told which cells changed each time a Spreadsheet
+ * is edited and recalculated.
+ *
+ * @author Mark Malyshev
+ * @author Yusuf Shakhpaz
+ * @author Georgia Karwhite
+ * @version June 2, 2025
+ */
+public interface SpreadsheetListener {
+
+    /**
+     * Called after an edit made with setCellFormula, setCellValue, clear or
+     * a batch, once every affected cell has been recalculated. This is
+     * called on the thread that made the edit.
+     * <p>
+     * Formulas given to submitFormula are recalculated on the spreadsheet's
+     * background thread instead, and this is called on that thread for each
+     * slice of cells as it is done. The spreadsheet may then still be only
+     * partly recalculated, and later events follow for the rest. Listeners
+     * that update a user interface must hand the event over to its thread,
+     * and must not call awaitRecalculation.
+     * <p>
+     * No lock is held during the call, so the listener may read or edit the
+     * spreadsheet.
+     * @param event the cells whose formula, value or error state changed
+     */
+    public void cellsChanged(CellChangeEvent event);
+}
@@ -0,0 +1,79 @@
+package app;
+
+import javax.swing.table.AbstractTableModel;
+
+/**
+ * SpreadsheetTableModel shows a Spreadsheet in a JTable. It stores nothing
+ * of its own: the table asks for the cells it paints, which are only the
+ * visible ones, and each is read straight from the spreadsheet. Column
+ * names are worked out when they are asked for.
+ *
+ * @author Mark Malyshev
+ * @author Yusuf Shakhpaz
+ * @author Georgia Karwhite
+ * @version June 2, 2025
+ */
+class SpreadsheetTableModel extends AbstractTableModel {
+    /**
+     * The spreadsheet the model shows
+     */
+    private final Spreadsheet spreadsheet;
+
+    /**
+     * Creates a model that shows a spreadsheet
+     * @param spreadsheet the spreadsheet to show
+     */
+    SpreadsheetTableModel(Spreadsheet spreadsheet) {
+        this.spreadsheet = spreadsheet;
+    }
+
+    @Override
+    public int getRowCount() {
+        return spreadsheet.getNumberOfRows();
+    }
+
+    @Override
+    public int getColumnCount() {
+        return spreadsheet.getNumberOfColumns();
+    }
+
+    /**
+     * Gets the name of a column the way it is written in formulas
+     * @param column the column index (0-based)
+     * @return the letters of the column, such as A, Z or AA
+     */
+    @Override
+    public String getColumnName(int column) {
+        StringBuilder sb = new StringBuilder();
+        while (column >= 0) {
+            sb.insert(0, (char)('A' + (column % 26)));
+            column = column / 26 - 1;
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public boolean isCellEditable(int row, int column) {
+        return true;
+    }
+
+    @Override
+    public Object getValueAt(int row, int col) {
+        // Values are kept up to date by the spreadsheet's recalculation,
+        // so painting only has to show them
+        return spreadsheet.getCellText(row, col);
+    }
+
+    @Override
+    public void setValueAt(Object value, int row, int col) {
+        String input = ((String)value).trim().toUpperCase();
+        String current = spreadsheet.getCellFormula(row, col);
+
+        if (!input.equals(current)) {
+            // Always treat input as potential formula. It is recalculated in
+            // the background, and the spreadsheet's listeners repaint the
+            // cells as their values come in.
+            spreadsheet.submitFormula(row, col, input);
+        }
+    }
+}
@@ -3,7 +3,13 @@ import javax.swing.*;
 import javax.swing.table.*;
 import java.awt.*;
 
-public class SpreadsheetUI extends JFrame {
+public class SpreadsheetUI extends JFrame implements SpreadsheetListener {
+    /**
+     * The most changed cells that are repainted one by one; larger changes
+     * repaint the range of rows they cover instead
+     */
+    private static final int MaxCellUpdates = 32;
+
     // UI Components
 
     /**
@@ -19,7 +25,7 @@ public class SpreadsheetUI extends JFrame {
     /**
      * The model of the spreadsheet
      */
-    private DefaultTableModel model;
+    private SpreadsheetTableModel model;
 
     /**
      * The scroll pane of the spreadsheet
@@ -38,16 +44,51 @@ public class SpreadsheetUI extends JFrame {
      */
     public SpreadsheetUI(Spreadsheet theSpreadsheet) {
         this.spreadsheet = theSpreadsheet;
-        spreadsheet.setUI(this);
+        spreadsheet.addSpreadsheetListener(this);
         initializeUI();
     }
 
     /**
-     * Updates the entire table
+     * Closes the window and stops listening to the spreadsheet
+     */
+    @Override
+    public void dispose() {
+        spreadsheet.removeSpreadsheetListener(this);
+        super.dispose();
+    }
+
+    /**
+     * Repaints the cells changed by an edit. This may be called from any
+     * thread; the table is updated on the Event Dispatch Thread.
+     * @param event the cells that changed
      */
-    public void refreshTable() {
-        if (model != null) {
+    @Override
+    public void cellsChanged(CellChangeEvent event) {
+        if (SwingUtilities.isEventDispatchThread()) {
+            updateCells(event);
+        } else {
+            SwingUtilities.invokeLater(() -> updateCells(event));
+        }
+    }
+
+    private void updateCells(CellChangeEvent event) {
+        if (model == null) {
+            return;
+        }
+        if (event.isAllCells()) {
             model.fireTableDataChanged();
+        } else if (event.getCount() <= MaxCellUpdates) {
+            for (int i = 0; i < event.getCount(); i++) {
+                model.fireTableCellUpdated(event.getRow(i), event.getColumn(i));
+            }
+        } else {
+            int firstRow = event.getRow(0);
+            int lastRow = firstRow;
+            for (int i = 1; i < event.getCount(); i++) {
+                firstRow = Math.min(firstRow, event.getRow(i));
+                lastRow = Math.max(lastRow, event.getRow(i));
+            }
+            model.fireTableRowsUpdated(firstRow, lastRow);
         }
     }
 
@@ -118,60 +159,9 @@ public class SpreadsheetUI extends JFrame {
     }
 
     private void createTableModel() {
-        String[] columns = createColumnHeaders();
-        model = new DefaultTableModel(columns, spreadsheet.getNumberOfRows()) {
-            @Override
-            public boolean isCellEditable(int row, int column) {
-                return true;
-            }
-            
-            @Override
-            public void setValueAt(Object value, int row, int col) {
-                String input = ((String)value).trim().toUpperCase();
-                String current = spreadsheet.getCellFormula(row, col);
-                
-                if (!input.equals(current)) {
-                    // Always treat input as potential formula
-                    spreadsheet.setCellFormula(row, col, input);
-                }
-            }
-
-            @Override
-            public Object getValueAt(int row, int col) {
-                Cell cell = spreadsheet.getCell(row, col);
-                if (cell.getFormula().isEmpty()) {
-                    return "";
-                }
-                // Cell depends on other cells, so we need to evaluate the formula
-                if (cell.getExpressionTree() != null) {
-                    try {
-                        cell.evaluate(spreadsheet);
-                        return String.valueOf(cell.getValue());
-                    } catch (Exception e) {
-                        return cell.getFormula();
-                    }
-                }
-                // For direct numbers, show the value
-                return String.valueOf(cell.getValue());
-            }
-        };
-    }
-
-    private String[] createColumnHeaders() {
-        String[] columns = new String[spreadsheet.getNumberOfColumns()];
-        for (int i = 0; i < columns.length; i++) {
-            columns[i] = getColumnName(i);
-        }
-        return columns;
-    }
-
-    private String getColumnName(int index) {
-        StringBuilder sb = new StringBuilder();
-        while (index >= 0) {
-            sb.insert(0, (char)('A' + (index % 26)));
-            index = index / 26 - 1;
-        }
-        return sb.toString();
+        // The model reads the spreadsheet as the table paints, so nothing
+        // is allocated per row however large the sheet is
+        model = new SpreadsheetTableModel(spreadsheet);
     }
 
     private void createTable() {
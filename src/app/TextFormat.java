@@ -0,0 +1,170 @@
+package app;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * TextFormat reads and writes spreadsheets as text. The first line holds the
+ * number of rows and columns, and each following line describes one non-empty
+ * cell as "row,col,formula,value". The formula is everything between the
+ * second and the last comma, so it may contain commas itself; backslashes and
+ * line breaks in it are escaped with a backslash.
+ *
+ * @author Mark Malyshev
+ * @author Yusuf Shakhpaz
+ * @author Georgia Karwhite
+ * @version June 2, 2025
+ */
+final class TextFormat {
+
+    private TextFormat() {
+    }
+
+    /**
+     * Writes a spreadsheet to a file. The file is replaced in one step, so it
+     * is never left half written.
+     * @param spreadsheet the spreadsheet to write
+     * @param path the file to write to
+     * @throws IOException if the file cannot be written
+     */
+    static void write(Spreadsheet spreadsheet, Path path) throws IOException {
+        FileReplacer.replace(path, file -> {
+            try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+                writeCells(spreadsheet, writer);
+            }
+        });
+    }
+
+    private static void writeCells(Spreadsheet spreadsheet, Writer writer) throws IOException {
+        writer.write(Integer.toString(spreadsheet.getNumberOfRows()));
+        writer.write(',');
+        writer.write(Integer.toString(spreadsheet.getNumberOfColumns()));
+        writer.write('\n');
+
+        for (int slot = 0; slot < spreadsheet.cellSlots(); slot++) {
+            Cell cell = spreadsheet.cellAt(slot);
+            if (cell == null || (cell.getFormula().isEmpty() && cell.getValue() == 0)) {
+                continue;
+            }
+            writeCell(spreadsheet.keyAt(slot), cell, writer);
+        }
+        for (long key : spreadsheet.plainValueKeys()) {
+            writeCell(key, spreadsheet.plainCellAt(key), writer);
+        }
+    }
+
+    private static void writeCell(long key, Cell cell, Writer writer) throws IOException {
+        writer.write(Integer.toString(CellKey.row(key)));
+        writer.write(',');
+        writer.write(Integer.toString(CellKey.column(key)));
+        writer.write(',');
+        writeEscaped(cell.getFormula(), writer);
+        writer.write(',');
+        writer.write(Integer.toString(cell.getValue()));
+        writer.write('\n');
+    }
+
+    private static void writeEscaped(String formula, Writer writer) throws IOException {
+        int start = 0;
+        for (int i = 0; i < formula.length(); i++) {
+            char ch = formula.charAt(i);
+            if (ch == '\\' || ch == '\n' || ch == '\r') {
+                writer.write(formula, start, i - start);
+                writer.write('\\');
+                writer.write(ch == '\n' ? 'n' : ch == '\r' ? 'r' : '\\');
+                start = i + 1;
+            }
+        }
+        writer.write(formula, start, formula.length() - start);
+    }
+
+    /**
+     * Reads a spreadsheet written by write. Every cell is staged first and the
+     * whole sheet is recalculated once at the end.
+     * @param path the file to read
+     * @return the spreadsheet described by the file
+     * @throws IOException if the file cannot be read or is malformed
+     */
+    static Spreadsheet read(Path path) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String header = reader.readLine();
+            int comma = header == null ? -1 : header.indexOf(',');
+            if (comma < 0) {
+                throw new IOException("Missing spreadsheet size in " + path);
+            }
+            Spreadsheet spreadsheet;
+            try {
+                spreadsheet = new Spreadsheet(
+                        Integer.parseInt(header, 0, comma, 10),
+                        Integer.parseInt(header, comma + 1, header.length(), 10));
+            } catch (NumberFormatException e) {
+                throw new IOException("Bad spreadsheet size in " + path + ": " + header);
+            }
+
+            int lineNumber = 1;
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                lineNumber++;
+                if (!line.isEmpty()) {
+                    readCell(spreadsheet, line, lineNumber);
+                }
+            }
+            spreadsheet.recalculateAll();
+            return spreadsheet;
+        }
+    }
+
+    private static void readCell(Spreadsheet spreadsheet, String line, int lineNumber)
+            throws IOException {
+        int first = line.indexOf(',');
+        int second = first < 0 ? -1 : line.indexOf(',', first + 1);
+        int last = line.lastIndexOf(',');
+        if (second < 0 || last <= second) {
+            throw new IOException("Malformed cell on line " + lineNumber + ": " + line);
+        }
+
+        int row;
+        int col;
+        int value;
+        try {
+            row = Integer.parseInt(line, 0, first, 10);
+            col = Integer.parseInt(line, first + 1, second, 10);
+            value = Integer.parseInt(line, last + 1, line.length(), 10);
+        } catch (NumberFormatException e) {
+            throw new IOException("Malformed cell on line " + lineNumber + ": " + line);
+        }
+        if (row < 0 || row >= spreadsheet.getNumberOfRows()
+                || col < 0 || col >= spreadsheet.getNumberOfColumns()) {
+            throw new IOException("Cell outside of the spreadsheet on line " + lineNumber);
+        }
+
+        String formula = unescape(line, second + 1, last);
+        if (formula.isEmpty() || formula.startsWith(Spreadsheet.ErrorPrefix)) {
+            // Plain values and error text are kept exactly as they were saved
+            spreadsheet.stageCell(row, col, formula, value);
+        } else {
+            spreadsheet.stageFormula(row, col, formula);
+        }
+    }
+
+    private static String unescape(String line, int start, int end) {
+        int slash = line.indexOf('\\', start);
+        if (slash < 0 || slash >= end) {
+            return line.substring(start, end);
+        }
+        StringBuilder formula = new StringBuilder(end - start);
+        for (int i = start; i < end; i++) {
+            char ch = line.charAt(i);
+            if (ch == '\\' && i + 1 < end) {
+                ch = line.charAt(++i);
+                ch = ch == 'n' ? '\n' : ch == 'r' ? '\r' : ch;
+            }
+            formula.append(ch);
+        }
+        return formula.toString();
+    }
+}
@@ -1,16 +0,0 @@
-package app;
-
-/**
- * Defines methods needed in Token classes
- * 
- * @author Mark Malyshev
- * @author Yusuf Shakhpaz
- * @author Georgia Karwhite
- * @version June 2, 2025
- */
-public abstract class Token {
- public abstract String toString();
-}
-
-
-
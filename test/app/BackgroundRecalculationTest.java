@@ -0,0 +1,135 @@
+package app;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests recalculation on the background thread: later edits supersede a
+ * running recalculation, clear throws away what has not been done yet, an
+ * edit that fails does not hold up the ones after it, and the sheet always
+ * ends up where synchronous edits would have left it.
+ *
+ * @author Mark Malyshev
+ * @author Yusuf Shakhpaz
+ * @author Georgia Karwhite
+ * @version June 2, 2025
+ */
+class BackgroundRecalculationTest {
+    /**
+     * Long enough that recalculating it takes several slices
+     */
+    private static final int ChainLength = 20000;
+
+    @Test
+    void laterEditsSupersedeARunningRecalculation() throws InterruptedException {
+        Spreadsheet spreadsheet = chain();
+        ConcurrentLinkedQueue<String> threads = new ConcurrentLinkedQueue<String>();
+        spreadsheet.addSpreadsheetListener(event -> threads.add(Thread.currentThread().getName()));
+
+        for (int i = 1; i <= 20; i++) {
+            spreadsheet.submitFormula(0, 0, Integer.toString(i * 100));
+        }
+        spreadsheet.submitFormula(0, 1, "A" + ChainLength + "*2");
+        spreadsheet.awaitRecalculation();
+
+        for (int row = 0; row < ChainLength; row += 997) {
+            assertEquals(2000 + row, spreadsheet.getCellValue(row, 0));
+        }
+        assertEquals(2 * (2000 + ChainLength - 1), spreadsheet.getCellValue(0, 1));
+        assertFalse(threads.isEmpty());
+        for (String thread : threads) {
+            assertEquals("Spreadsheet recalculation", thread);
+        }
+    }
+
+    @Test
+    void backgroundEditsMatchSynchronousEdits() throws InterruptedException {
+        Spreadsheet background = new Spreadsheet(20, 4);
+        Spreadsheet synchronous = new Spreadsheet(20, 4);
+        Random random = new Random(5);
+        for (int step = 0; step < 300; step++) {
+            int row = random.nextInt(20);
+            int col = random.nextInt(4);
+            String formula = random.nextBoolean()
+                    ? Integer.toString(random.nextInt(100))
+                    : "SUM(A1:" + (char) ('A' + random.nextInt(4)) + (1 + random.nextInt(20)) + ")+1";
+            background.submitFormula(row, col, formula);
+            synchronous.setCellFormula(row, col, formula);
+        }
+        background.awaitRecalculation();
+        RecalculationTest.assertSameCells(synchronous, background, "background");
+    }
+
+    @Test
+    void clearDropsPendingEdits() throws InterruptedException {
+        Spreadsheet spreadsheet = chain();
+        for (int i = 1; i <= 5; i++) {
+            spreadsheet.submitFormula(0, 0, Integer.toString(i));
+            spreadsheet.submitFormula(i, 1, "A1");
+        }
+        spreadsheet.clear();
+        spreadsheet.awaitRecalculation();
+        for (int row = 0; row < ChainLength; row += 97) {
+            assertEquals("", spreadsheet.getCellFormula(row, 0));
+            assertEquals(0, spreadsheet.getCellValue(row, 0));
+        }
+        for (int row = 1; row <= 5; row++) {
+            assertEquals("", spreadsheet.getCellText(row, 1));
+        }
+
+        // The sheet still works after being cleared
+        spreadsheet.submitFormula(1, 0, "A1+4");
+        spreadsheet.submitFormula(0, 0, "3");
+        spreadsheet.awaitRecalculation();
+        assertEquals(7, spreadsheet.getCellValue(1, 0));
+    }
+
+    @Test
+    void aFailedEditDoesNotBlockLaterOnes() throws InterruptedException {
+        Spreadsheet spreadsheet = new Spreadsheet(10, 10) {
+            @Override
+            int stageFormula(int row, int col, String input) {
+                if (input.equals("FAIL")) {
+                    throw new IllegalStateException("staging failed");
+                }
+                return super.stageFormula(row, col, input);
+            }
+        };
+        spreadsheet.setCellFormula(0, 1, "A1+1");
+        spreadsheet.submitFormula(0, 0, "FAIL");
+        spreadsheet.submitFormula(1, 0, "5");
+        spreadsheet.submitFormula(2, 0, "A2+1");
+        spreadsheet.awaitRecalculation();
+
+        assertEquals("ERROR: FAIL", spreadsheet.getCellFormula(0, 0));
+        assertEquals(1, spreadsheet.getCellValue(0, 1));
+        assertEquals(5, spreadsheet.getCellValue(1, 0));
+        assertEquals(6, spreadsheet.getCellValue(2, 0));
+
+        // The failed edit is not tried again by the next recalculation
+        spreadsheet.submitFormula(3, 0, "((((((((((1");
+        spreadsheet.submitFormula(4, 0, "7");
+        spreadsheet.awaitRecalculation();
+        assertEquals("ERROR: FAIL", spreadsheet.getCellFormula(0, 0));
+        assertEquals(7, spreadsheet.getCellValue(4, 0));
+    }
+
+    /**
+     * Makes a sheet where each cell of column A is one more than the cell
+     * above it
+     */
+    private static Spreadsheet chain() {
+        Spreadsheet spreadsheet = new Spreadsheet(ChainLength, 2);
+        spreadsheet.beginBatch();
+        spreadsheet.setCellFormula(0, 0, "0");
+        for (int row = 1; row < ChainLength; row++) {
+            spreadsheet.setCellFormula(row, 0, "A" + row + "+1");
+        }
+        spreadsheet.commitBatch();
+        return spreadsheet;
+    }
+}
@@ -0,0 +1,103 @@
+package app;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests that other threads can read a spreadsheet while one thread edits
+ * it, and only ever see values from before or after an edit.
+ *
+ * @author Mark Malyshev
+ * @author Yusuf Shakhpaz
+ * @author Georgia Karwhite
+ * @version June 2, 2025
+ */
+class ConcurrentReadTest {
+    private static final int Rows = 2000;
+    private static final int Edits = 3000;
+    private static final int Readers = 4;
+
+    @Test
+    void readersSeeWholeEdits() throws InterruptedException {
+        for (boolean columnar : new boolean[] { false, true }) {
+            Spreadsheet spreadsheet = new Spreadsheet(Rows, 4, columnar);
+            spreadsheet.setCellFormula(0, 0, "0");
+            spreadsheet.setCellFormula(0, 1, "A1*2");
+            spreadsheet.setCellFormula(0, 2, "SUM(A1:B1)");
+
+            AtomicBoolean done = new AtomicBoolean();
+            AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+            Thread[] readers = new Thread[Readers];
+            for (int r = 0; r < Readers; r++) {
+                readers[r] = new Thread(() -> {
+                    try {
+                        read(spreadsheet, done);
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    }
+                });
+                readers[r].start();
+            }
+
+            // Each edit also writes a new cell in column D, so the arrays
+            // behind the sheet grow while the readers run
+            try {
+                for (int i = 1; i <= Edits; i++) {
+                    if (i % 10 == 0) {
+                        spreadsheet.beginBatch();
+                        spreadsheet.setCellFormula(0, 0, Integer.toString(i));
+                        spreadsheet.setCellFormula(i % Rows, 3, "A1+" + i);
+                        spreadsheet.commitBatch();
+                    } else {
+                        spreadsheet.setCellFormula(0, 0, Integer.toString(i));
+                        spreadsheet.setCellFormula(i % Rows, 3, Integer.toString(i));
+                    }
+                }
+            } finally {
+                done.set(true);
+            }
+            for (Thread reader : readers) {
+                reader.join(10000);
+                assertFalse(reader.isAlive());
+            }
+            String where = columnar ? "columnar" : "default";
+            assertNull(failure.get(), () -> where + ": " + failure.get());
+            assertEquals(Edits * 3, spreadsheet.getCellValue(0, 2), where);
+        }
+    }
+
+    /**
+     * Reads the cells the writer edits until it is done, checking that A1
+     * and the cells reading it never go backwards or show a half finished
+     * recalculation
+     */
+    private static void read(Spreadsheet spreadsheet, AtomicBoolean done) {
+        int lastA = 0;
+        int lastB = 0;
+        int lastSum = 0;
+        while (!done.get()) {
+            int a = spreadsheet.getCellValue(0, 0);
+            int b = spreadsheet.getCellValue(0, 1);
+            int sum = spreadsheet.getCellValue(0, 2);
+            assertTrue(a >= lastA && a <= Edits, "A1 " + a + " after " + lastA);
+            assertTrue(b % 2 == 0 && b >= lastB && b <= Edits * 2, "B1 " + b + " after " + lastB);
+            assertTrue(sum % 3 == 0 && sum >= lastSum, "C1 " + sum + " after " + lastSum);
+            lastA = a;
+            lastB = b;
+            lastSum = sum;
+
+            assertEquals("A1*2", spreadsheet.getCellFormula(0, 1));
+            Cell cell = spreadsheet.findCell(0, 1);
+            assertTrue(cell != null && cell.getValue() % 2 == 0);
+            int formula = Integer.parseInt(spreadsheet.getCellFormula(0, 0));
+            assertTrue(formula >= a, "A1 formula " + formula + " after value " + a);
+            assertFalse(spreadsheet.getCellText(0, 2).startsWith("ERROR"));
+        }
+    }
+}
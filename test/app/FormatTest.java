@@ -0,0 +1,139 @@
+package app;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests that spreadsheets come back the same after being saved as text or as
+ * a snapshot, that corrupt snapshots are rejected, and that saving does not
+ * change who can read the file.
+ *
+ * @author Mark Malyshev
+ * @author Yusuf Shakhpaz
+ * @author Georgia Karwhite
+ * @version June 2, 2025
+ */
+class FormatTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    void textRoundTripKeepsEveryCell() throws IOException {
+        for (boolean columnar : new boolean[] { false, true }) {
+            Spreadsheet spreadsheet = randomSheet(columnar, 7);
+            Path path = directory.resolve("sheet.txt");
+            spreadsheet.save(path);
+            RecalculationTest.assertSameCells(spreadsheet, Spreadsheet.load(path),
+                    columnar ? "columnar" : "default");
+        }
+    }
+
+    @Test
+    void snapshotRoundTripKeepsEveryCell() throws IOException {
+        for (boolean columnar : new boolean[] { false, true }) {
+            Spreadsheet spreadsheet = randomSheet(columnar, 11);
+            Path path = directory.resolve("sheet.snap");
+            spreadsheet.saveSnapshot(path);
+            Spreadsheet loaded = Spreadsheet.loadSnapshot(path);
+            RecalculationTest.assertSameCells(spreadsheet, loaded, columnar ? "columnar" : "default");
+
+            // The loaded sheet is live, not just a picture of the saved one
+            spreadsheet.setCellFormula(0, 0, "42");
+            loaded.setCellFormula(0, 0, "42");
+            RecalculationTest.assertSameCells(spreadsheet, loaded, "edited");
+        }
+    }
+
+    @Test
+    void circularCellsSurviveRoundTrips() throws IOException {
+        Spreadsheet spreadsheet = new Spreadsheet(5, 5);
+        spreadsheet.setCellFormula(0, 0, "B1");
+        spreadsheet.setCellFormula(0, 1, "A1");
+        spreadsheet.setCellFormula(1, 0, "7");
+
+        Path text = directory.resolve("circular.txt");
+        spreadsheet.save(text);
+        Path snapshot = directory.resolve("circular.snap");
+        spreadsheet.saveSnapshot(snapshot);
+        for (Spreadsheet loaded : new Spreadsheet[] {
+                Spreadsheet.load(text), Spreadsheet.loadSnapshot(snapshot) }) {
+            assertTrue(loaded.findCell(0, 0).isCircular());
+            assertEquals("ERROR: CIRCULAR", loaded.getCellText(0, 1));
+            assertEquals(7, loaded.getCellValue(1, 0));
+        }
+    }
+
+    @Test
+    void savingKeepsTheFilePermissions() throws IOException {
+        Path path = directory.resolve("spreadsheet.txt");
+        Files.createFile(path);
+        assumeTrue(Files.getFileAttributeView(path, PosixFileAttributeView.class) != null);
+        Files.setPosixFilePermissions(path, PosixFilePermissions.fromString("rw-rw-r--"));
+
+        Spreadsheet spreadsheet = randomSheet(false, 3);
+        spreadsheet.save(path);
+        assertEquals("rw-rw-r--", PosixFilePermissions.toString(Files.getPosixFilePermissions(path)));
+        spreadsheet.saveSnapshot(path);
+        assertEquals("rw-rw-r--", PosixFilePermissions.toString(Files.getPosixFilePermissions(path)));
+        try (var files = Files.list(directory)) {
+            assertEquals(1, files.count(), "temporary files left behind");
+        }
+    }
+
+    @Test
+    void loadingRejectsCellsOutsideTheSheet() throws IOException {
+        Path path = directory.resolve("bad.txt");
+        Files.writeString(path, "2,2\n5,0,1,1\n");
+        assertThrows(IOException.class, () -> Spreadsheet.load(path));
+    }
+
+    @Test
+    void loadingRejectsCorruptSnapshots() throws IOException {
+        // One formula, B1+1 in A1, so every field is at a known offset
+        Spreadsheet spreadsheet = new Spreadsheet(3, 3);
+        spreadsheet.setCellFormula(0, 0, "B1+1");
+        Path path = directory.resolve("corrupt.snap");
+        spreadsheet.saveSnapshot(path);
+        byte[] saved = Files.readAllBytes(path);
+        assertEquals(93, saved.length);
+        assertEquals(1, Spreadsheet.loadSnapshot(path).getCellValue(0, 0));
+
+        int[][] patches = {
+            { 4, 1 },   // version 1, which is not read any more
+            { 8, 0 },   // no rows
+            { 36, 5 },  // PushCell of a reference that is not stored
+            { 48, 9 },  // an instruction that does not exist
+            { 68, 1 },  // a stack too small for the code
+            { 76, 7 },  // the cell's row is outside of the sheet
+            { 84, 3 },  // a formula that is not stored
+        };
+        for (int[] patch : patches) {
+            ByteBuffer bytes = ByteBuffer.wrap(saved.clone());
+            bytes.putInt(patch[0], patch[1]);
+            Files.write(path, bytes.array());
+            assertThrows(IOException.class, () -> Spreadsheet.loadSnapshot(path), "offset " + patch[0]);
+        }
+    }
+
+    private static Spreadsheet randomSheet(boolean columnar, int seed) {
+        Random random = new Random(seed);
+        Spreadsheet spreadsheet = new Spreadsheet(30, 6, columnar);
+        for (int step = 0; step < 200; step++) {
+            spreadsheet.setCellFormula(random.nextInt(30), random.nextInt(6),
+                    RecalculationTest.randomFormula(random));
+        }
+        return spreadsheet;
+    }
+}
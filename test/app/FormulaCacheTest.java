@@ -0,0 +1,98 @@
+package app;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests that FormulaCache shares an entry between formulas that only differ
+ * by where they sit, hands back trees that read the right cells, and drops
+ * the least recently used entries once full.
+ *
+ * @author Mark Malyshev
+ * @author Yusuf Shakhpaz
+ * @author Georgia Karwhite
+ * @version June 2, 2025
+ */
+class FormulaCacheTest {
+    private final FormulaLexer lexer = new FormulaLexer();
+    private final FormulaParser parser = new FormulaParser();
+
+    @Test
+    void relativeFormulasShareAKey() {
+        assertEquals(key("A1+1", 0, 1), key("A2+1", 1, 1));
+        assertEquals(key("SUM(A1:A3)*B1", 0, 2), key("SUM(B5:B7)*C5", 4, 3));
+        // Spacing does not matter, but every token does
+        assertEquals(key("A1+1", 0, 1), key(" A1 + 1 ", 0, 1));
+        assertNotEquals(key("A1+1", 0, 1), key("A1+1", 1, 1));
+        assertNotEquals(key("A1+1", 0, 1), key("A1+12", 0, 1));
+        assertNotEquals(key("A1+1", 0, 1), key("A1-1", 0, 1));
+        assertNotEquals(key("SUM(A1:A3)", 0, 1), key("MAX(A1:A3)", 0, 1));
+        assertNotEquals(key("1+2", 0, 0), key("12", 0, 0));
+    }
+
+    @Test
+    void hitsAreMovedToTheirCell() {
+        FormulaCache cache = new FormulaCache(16);
+        String key = key("A1*2+SUM(A1:B3)", 0, 2);
+        ExpressionTree parsed = parser.parse(lexer);
+        assertNull(cache.get(key, 0, 2));
+        cache.put(key, parsed, 0, 2);
+
+        // The same formula filled down two rows reads two rows lower
+        assertEquals(key, key("A3*2+SUM(A3:B5)", 2, 2));
+        ExpressionTree moved = cache.get(key, 2, 2);
+        assertNotNull(moved);
+        assertSame(parsed.code(), moved.code());
+        assertArrayEquals(new long[] { CellKey.of(2, 0) }, moved.references());
+        assertArrayEquals(new long[] { CellKey.of(2, 0), CellKey.of(4, 1) }, moved.ranges());
+
+        Spreadsheet spreadsheet = new Spreadsheet(6, 3);
+        spreadsheet.setCellFormula(2, 0, "5");
+        spreadsheet.setCellFormula(4, 1, "7");
+        assertEquals(22, moved.evaluate(spreadsheet));
+    }
+
+    @Test
+    void leastRecentlyUsedEntriesAreDropped() {
+        FormulaCache cache = new FormulaCache(2);
+        String[] keys = new String[3];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = key("A1+" + i, 0, 1);
+            cache.put(keys[i], parser.parse(lexer), 0, 1);
+            if (i == 1) {
+                // Using the first entry makes the second the oldest
+                assertNotNull(cache.get(keys[0], 0, 1));
+            }
+        }
+        assertNotNull(cache.get(keys[0], 0, 1));
+        assertNull(cache.get(keys[1], 0, 1));
+        assertNotNull(cache.get(keys[2], 0, 1));
+    }
+
+    @Test
+    void formulasFilledDownAColumnKeepTheirOwnReferences() {
+        Spreadsheet spreadsheet = new Spreadsheet(50, 2);
+        for (int row = 0; row < 50; row++) {
+            spreadsheet.setCellFormula(row, 0, Integer.toString(row));
+            spreadsheet.setCellFormula(row, 1, "A" + (row + 1) + "*3");
+        }
+        for (int row = 0; row < 50; row++) {
+            assertEquals(row * 3, spreadsheet.getCellValue(row, 1));
+        }
+        spreadsheet.setCellFormula(10, 0, "100");
+        assertEquals(300, spreadsheet.getCellValue(10, 1));
+        assertEquals(33, spreadsheet.getCellValue(11, 1));
+    }
+
+    private String key(String formula, int row, int col) {
+        assertTrue(lexer.tokenize(formula), formula);
+        return FormulaCache.keyOf(lexer, row, col);
+    }
+}
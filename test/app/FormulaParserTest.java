@@ -0,0 +1,139 @@
+package app;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests that FormulaLexer splits formulas into the right tokens and rejects
+ * bad ones, and that FormulaParser compiles them with the usual precedence,
+ * however deeply they nest or badly they balance.
+ *
+ * @author Mark Malyshev
+ * @author Yusuf Shakhpaz
+ * @author Georgia Karwhite
+ * @version June 2, 2025
+ */
+class FormulaParserTest {
+    private final FormulaLexer lexer = new FormulaLexer();
+    private final FormulaParser parser = new FormulaParser();
+
+    @Test
+    void lexerReadsEveryKindOfToken() {
+        assertTrue(lexer.tokenize(" 12 + AB10*(SUM(C5:A1))"));
+        assertEquals(7, lexer.count());
+
+        assertEquals(FormulaLexer.Literal, lexer.kind(0));
+        assertEquals(12, lexer.value(0));
+        assertEquals(FormulaLexer.Operator, lexer.kind(1));
+        assertEquals('+', lexer.value(1));
+        assertEquals(FormulaLexer.Cell, lexer.kind(2));
+        assertEquals(9, lexer.value(2));
+        assertEquals(27, lexer.column(2));
+        assertEquals(FormulaLexer.Operator, lexer.kind(4));
+        assertEquals('(', lexer.value(4));
+
+        // The corners of a range are put in order
+        assertEquals(FormulaLexer.Aggregate, lexer.kind(5));
+        assertEquals(ExpressionTree.Sum, lexer.function(5));
+        assertEquals(0, lexer.value(5));
+        assertEquals(0, lexer.column(5));
+        assertEquals(4, lexer.lastRow(5));
+        assertEquals(2, lexer.lastColumn(5));
+        assertEquals(FormulaLexer.RightParen, lexer.kind(6));
+    }
+
+    @Test
+    void lexerRejectsBadTokens() {
+        String[] bad = { "A0", "1 $ 2", "a1", "A", "FOO(A1)", "SUM(A1:)", "SUM(A1", "SUM()", "AVG(1:2)" };
+        for (String formula : bad) {
+            assertFalse(lexer.tokenize(formula), formula);
+        }
+        // A failed formula does not leave tokens behind for the next one
+        assertTrue(lexer.tokenize("B2"));
+        assertEquals(1, lexer.count());
+    }
+
+    @Test
+    void lexerGrowsPastItsFirstArrays() {
+        StringBuilder formula = new StringBuilder("1");
+        for (int i = 0; i < 100; i++) {
+            formula.append("+1");
+        }
+        assertTrue(lexer.tokenize(formula));
+        assertEquals(201, lexer.count());
+    }
+
+    @Test
+    void parserFollowsPrecedenceAndAssociativity() {
+        assertEquals(14, value("2+3*4"));
+        assertEquals(20, value("(2+3)*4"));
+        assertEquals(3, value("10-4-3"));
+        assertEquals(2, value("8/2/2"));
+        assertEquals(0, value("5/0"));
+    }
+
+    @Test
+    void parserHandlesDeepNesting() {
+        int depth = 500;
+        String formula = "(".repeat(depth) + "1" + "+1)".repeat(depth);
+        assertEquals(depth + 1, value(formula));
+
+        // More open operators than the parser's first arrays hold, in a
+        // formula with few tokens
+        for (int open = 1; open <= 40; open++) {
+            assertTrue(lexer.tokenize("(".repeat(open) + "1"));
+            assertNotNull(parser.parse(lexer));
+        }
+        Spreadsheet spreadsheet = new Spreadsheet(10, 10);
+        spreadsheet.setCellFormula(0, 0, "((((((((((1");
+        assertEquals(0, spreadsheet.getCellValue(0, 0));
+    }
+
+    @Test
+    void parserToleratesUnbalancedParentheses() {
+        assertEquals(3, value("1+2)"));
+        assertEquals(3, value("1+2))))"));
+        // An open parenthesis left over is an operator missing its operands
+        assertTrue(lexer.tokenize("(1+2"));
+        assertNull(parser.parse(lexer).code());
+        assertTrue(lexer.tokenize("1+"));
+        assertNull(parser.parse(lexer).code());
+        // Nothing to evaluate at all
+        assertTrue(lexer.tokenize("()"));
+        assertNull(parser.parse(lexer));
+    }
+
+    @Test
+    void parserListsEachReferenceOnce() {
+        assertTrue(lexer.tokenize("A1+B1+C1+D1+E1+F1+G1+H1+I1+J1+A1+J1+SUM(A1:B2)+MAX(A1:B2)"));
+        ExpressionTree tree = parser.parse(lexer);
+        assertEquals(10, tree.references().length);
+        assertEquals(CellKey.of(0, 0), tree.references()[0]);
+        assertEquals(CellKey.of(0, 9), tree.references()[9]);
+        assertArrayEquals(new long[] { CellKey.of(0, 0), CellKey.of(1, 1) }, tree.ranges());
+    }
+
+    @Test
+    void unboundTreeReadsWithoutWriting() {
+        Spreadsheet spreadsheet = new Spreadsheet(4, 4);
+        spreadsheet.setCellFormula(0, 0, "5");
+        assertTrue(lexer.tokenize("A1+B2*2+Z99"));
+        ExpressionTree tree = parser.parse(lexer);
+        // Missing cells and cells outside of the sheet read as 0
+        assertEquals(5, tree.evaluate(spreadsheet));
+        assertNull(spreadsheet.findCell(1, 1));
+    }
+
+    private int value(String formula) {
+        Spreadsheet spreadsheet = new Spreadsheet(4, 4);
+        spreadsheet.setCellFormula(3, 3, formula);
+        assertFalse(spreadsheet.getCellFormula(3, 3).startsWith("ERROR"), formula);
+        return spreadsheet.getCellValue(3, 3);
+    }
+}
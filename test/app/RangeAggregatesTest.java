@@ -0,0 +1,164 @@
+package app;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests that the running totals kept for ranges give the same results as
+ * scanning the range, as the cells under them are edited and while a pool
+ * recalculates them, and that circular cells only affect the ranges that
+ * hold them.
+ *
+ * @author Mark Malyshev
+ * @author Yusuf Shakhpaz
+ * @author Georgia Karwhite
+ * @version June 2, 2025
+ */
+class RangeAggregatesTest {
+    private static final int Rows = 200;
+    private static final String[] Functions = { "SUM", "AVG", "MIN", "MAX", "COUNT" };
+    private static final int[] Codes = {
+        ExpressionTree.Sum, ExpressionTree.Average, ExpressionTree.Min,
+        ExpressionTree.Max, ExpressionTree.Count
+    };
+
+    @Test
+    void runningTotalsMatchAScan() {
+        for (boolean columnar : new boolean[] { false, true }) {
+            Random random = new Random(columnar ? 2 : 1);
+            // Columns A to C hold the data, D to H the formulas over it, and
+            // I1 a number some of the data reads
+            Spreadsheet spreadsheet = new Spreadsheet(Rows, 9, columnar);
+            spreadsheet.setCellFormula(0, 8, "7");
+            long[][] ranges = new long[40][];
+            for (int i = 0; i < ranges.length; i++) {
+                int top = random.nextInt(Rows);
+                int bottom = top + random.nextInt(Rows - top);
+                int left = random.nextInt(3);
+                int right = left + random.nextInt(3 - left);
+                ranges[i] = new long[] { CellKey.of(top, left), CellKey.of(bottom, right) };
+                spreadsheet.setCellFormula(i, 3 + i % Functions.length, Functions[i % Functions.length]
+                        + "(" + name(top, left) + ":" + name(bottom, right) + ")");
+            }
+
+            for (int step = 0; step < 2000; step++) {
+                int row = random.nextInt(Rows);
+                int col = random.nextInt(3);
+                int kind = random.nextInt(10);
+                if (kind == 9) {
+                    spreadsheet.setCellFormula(0, 8, Integer.toString(random.nextInt(100)));
+                    continue;
+                }
+                String formula = kind == 0 ? "" : kind == 1 ? "I1+" + random.nextInt(5)
+                        : Integer.toString(random.nextInt(2001) - 1000);
+                spreadsheet.setCellFormula(row, col, formula);
+                if (step % 50 == 0) {
+                    assertMatchesScan(spreadsheet, ranges, (columnar ? "columnar" : "default") + " step " + step);
+                }
+            }
+            assertMatchesScan(spreadsheet, ranges, columnar ? "columnar" : "default");
+        }
+    }
+
+    @Test
+    void runningTotalDownAColumn() {
+        int rows = 2000;
+        Spreadsheet spreadsheet = new Spreadsheet(rows, 2, true);
+        spreadsheet.beginBatch();
+        for (int row = 0; row < rows; row++) {
+            spreadsheet.setCellFormula(row, 0, Integer.toString(row + 1));
+            spreadsheet.setCellFormula(row, 1, "SUM(A1:A" + (row + 1) + ")");
+        }
+        spreadsheet.commitBatch();
+        assertEquals(rows * (rows + 1) / 2, spreadsheet.getCellValue(rows - 1, 1));
+
+        spreadsheet.setCellFormula(0, 0, "1001");
+        for (int row = 0; row < rows; row++) {
+            assertEquals((row + 1) * (row + 2) / 2 + 1000, spreadsheet.getCellValue(row, 1));
+        }
+    }
+
+    @Test
+    void runningTotalsMatchAScanOnAPool() {
+        int rows = 3000;
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            for (boolean columnar : new boolean[] { false, true }) {
+                Random random = new Random(3);
+                Spreadsheet spreadsheet = new Spreadsheet(rows, 4, columnar);
+                spreadsheet.setRecalculationPool(pool);
+                // Thousands of formulas reading column A form one wave, which
+                // is spread across the pool; each reads a range of a different
+                // height, so columns are filled and grown while it runs
+                spreadsheet.beginBatch();
+                for (int row = 0; row < rows; row++) {
+                    spreadsheet.setCellFormula(row, 0, Integer.toString(random.nextInt(1000)));
+                    spreadsheet.setCellFormula(row, 1, "SUM(A1:A" + (row + 1) + ")");
+                    spreadsheet.setCellFormula(row, 2, (row % 2 == 0 ? "MIN" : "MAX")
+                            + "(A" + (row + 1) + ":A" + rows + ")");
+                }
+                spreadsheet.commitBatch();
+                assertColumnsMatchScan(spreadsheet, rows, columnar ? "columnar" : "default");
+
+                for (int step = 0; step < 5; step++) {
+                    spreadsheet.setCellFormula(random.nextInt(rows), 0,
+                            Integer.toString(random.nextInt(1000) - 500));
+                    assertColumnsMatchScan(spreadsheet, rows, (columnar ? "columnar" : "default")
+                            + " step " + step);
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void circularCellsOnlyAffectTheRangesHoldingThem() {
+        Spreadsheet spreadsheet = new Spreadsheet(1000, 4);
+        for (int row = 0; row < 1000; row++) {
+            spreadsheet.setCellFormula(row, 0, "1");
+        }
+        spreadsheet.setCellFormula(0, 1, "SUM(A1:A1000)");
+        spreadsheet.setCellFormula(1, 1, "SUM(A1:A500)");
+        spreadsheet.setCellFormula(2, 1, "SUM(C1:C1000)");
+
+        // A loop in column A, below the second range
+        spreadsheet.setCellFormula(800, 0, "D1");
+        spreadsheet.setCellFormula(0, 3, "A801");
+        assertTrue(spreadsheet.findCell(0, 1).isCircular());
+        assertFalse(spreadsheet.findCell(1, 1).isCircular());
+        assertEquals(500, spreadsheet.getCellValue(1, 1));
+        assertFalse(spreadsheet.findCell(2, 1).isCircular());
+
+        spreadsheet.setCellFormula(0, 3, "1");
+        assertFalse(spreadsheet.findCell(0, 1).isCircular());
+        assertEquals(1000, spreadsheet.getCellValue(0, 1));
+    }
+
+    private static void assertColumnsMatchScan(Spreadsheet spreadsheet, int rows, String where) {
+        for (int row = 0; row < rows; row++) {
+            assertEquals(spreadsheet.aggregate(ExpressionTree.Sum, CellKey.of(0, 0), CellKey.of(row, 0)),
+                    spreadsheet.getCellValue(row, 1), where + " row " + row);
+            int function = row % 2 == 0 ? ExpressionTree.Min : ExpressionTree.Max;
+            assertEquals(spreadsheet.aggregate(function, CellKey.of(row, 0), CellKey.of(rows - 1, 0)),
+                    spreadsheet.getCellValue(row, 2), where + " row " + row);
+        }
+    }
+
+    private static void assertMatchesScan(Spreadsheet spreadsheet, long[][] ranges, String where) {
+        for (int i = 0; i < ranges.length; i++) {
+            int function = Codes[i % Codes.length];
+            assertEquals(spreadsheet.aggregate(function, ranges[i][0], ranges[i][1]),
+                    spreadsheet.getCellValue(i, 3 + i % Functions.length), where + " range " + i);
+        }
+    }
+
+    private static String name(int row, int col) {
+        return "" + (char) ('A' + col) + (row + 1);
+    }
+}
@@ -0,0 +1,114 @@
+package app;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests that RangeIndex finds the same formulas as checking every range, as
+ * ranges are added and removed.
+ *
+ * @author Mark Malyshev
+ * @author Yusuf Shakhpaz
+ * @author Georgia Karwhite
+ * @version June 2, 2025
+ */
+class RangeIndexTest {
+    private static final int Rows = 100;
+    private static final int Columns = 8;
+
+    @Test
+    void lookupMatchesCheckingEveryRange() {
+        Random random = new Random(9);
+        RangeIndex index = new RangeIndex(Columns);
+        // Each range is { owner, first, last }
+        List<long[]> ranges = new ArrayList<long[]>();
+        for (int step = 0; step < 3000; step++) {
+            if (ranges.isEmpty() || random.nextInt(3) != 0) {
+                int top = random.nextInt(Rows);
+                int left = random.nextInt(Columns);
+                long[] range = { random.nextInt(50), CellKey.of(top, left),
+                    CellKey.of(top + random.nextInt(Rows - top), left + random.nextInt(Columns - left)) };
+                index.add((int) range[0], range[1], range[2]);
+                ranges.add(range);
+            } else {
+                long[] range = ranges.remove(random.nextInt(ranges.size()));
+                index.remove((int) range[0], range[1], range[2]);
+            }
+            if (step % 100 == 0) {
+                assertMatches(index, ranges, "step " + step);
+            }
+        }
+        assertMatches(index, ranges, "end");
+
+        for (long[] range : ranges) {
+            index.remove((int) range[0], range[1], range[2]);
+        }
+        assertTrue(index.isEmpty());
+        assertEquals(0, index.lookup(0, 0));
+    }
+
+    @Test
+    void rangesAreCutOffAtTheLastColumn() {
+        RangeIndex index = new RangeIndex(2);
+        index.add(3, CellKey.of(0, 1), CellKey.of(4, 5));
+        assertEquals(0, index.lookup(2, 0));
+        assertEquals(1, index.lookup(2, 1));
+        assertEquals(3, index.found()[0]);
+        assertEquals(0, index.lookup(2, 2));
+        assertEquals(0, index.lookup(5, 1));
+
+        index.remove(3, CellKey.of(0, 1), CellKey.of(4, 5));
+        assertTrue(index.isEmpty());
+    }
+
+    @Test
+    void aFormulaIsFoundOnceForEachRangeCoveringTheCell() {
+        RangeIndex index = new RangeIndex(Columns);
+        index.add(7, CellKey.of(0, 0), CellKey.of(9, 0));
+        index.add(7, CellKey.of(5, 0), CellKey.of(5, 3));
+        index.add(8, CellKey.of(5, 0), CellKey.of(5, 0));
+        assertEquals(3, index.lookup(5, 0));
+        int[] found = Arrays.copyOf(index.found(), 3);
+        Arrays.sort(found);
+        assertArrayEquals(new int[] { 7, 7, 8 }, found);
+
+        // Removing one of two identical ranges leaves the other
+        index.add(8, CellKey.of(5, 0), CellKey.of(5, 0));
+        index.remove(8, CellKey.of(5, 0), CellKey.of(5, 0));
+        assertEquals(3, index.lookup(5, 0));
+
+        index.clear();
+        assertTrue(index.isEmpty());
+        assertEquals(0, index.lookup(5, 0));
+        index.add(1, CellKey.of(5, 0), CellKey.of(5, 0));
+        assertFalse(index.isEmpty());
+        assertEquals(1, index.lookup(5, 0));
+    }
+
+    private static void assertMatches(RangeIndex index, List<long[]> ranges, String where) {
+        for (int row = 0; row < Rows; row++) {
+            for (int col = 0; col < Columns; col++) {
+                List<Integer> expected = new ArrayList<Integer>();
+                for (long[] range : ranges) {
+                    if (row >= CellKey.row(range[1]) && row <= CellKey.row(range[2])
+                            && col >= CellKey.column(range[1]) && col <= CellKey.column(range[2])) {
+                        expected.add((int) range[0]);
+                    }
+                }
+                int count = index.lookup(row, col);
+                int[] found = Arrays.copyOf(index.found(), count);
+                Arrays.sort(found);
+                int[] sorted = expected.stream().mapToInt(Integer::intValue).sorted().toArray();
+                assertArrayEquals(sorted, found, where + " at " + row + "," + col);
+            }
+        }
+    }
+}
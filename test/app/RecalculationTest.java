@@ -0,0 +1,266 @@
+package app;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests that editing a spreadsheet recalculates only what it has to and
+ * still ends up where recalculating everything would, that circular
+ * references are flagged and cleared, that recalculating on a pool gives
+ * the same results, and that batches recalculate once.
+ *
+ * @author Mark Malyshev
+ * @author Yusuf Shakhpaz
+ * @author Georgia Karwhite
+ * @version June 2, 2025
+ */
+class RecalculationTest {
+    private static final int Rows = 30;
+    private static final int Columns = 6;
+
+    @Test
+    void incrementalRecalculationMatchesFullRecalculation() {
+        for (boolean columnar : new boolean[] { false, true }) {
+            for (int seed = 0; seed < 20; seed++) {
+                Random random = new Random(seed);
+                Spreadsheet spreadsheet = new Spreadsheet(Rows, Columns, columnar);
+                Map<Long, String> formulas = new LinkedHashMap<Long, String>();
+                for (int step = 0; step < 300; step++) {
+                    int row = random.nextInt(Rows);
+                    int col = random.nextInt(Columns);
+                    String formula = randomFormula(random);
+                    spreadsheet.setCellFormula(row, col, formula);
+                    formulas.put(CellKey.of(row, col), formula);
+                }
+
+                // Stage the final formulas on a new sheet and evaluate them all at once
+                Spreadsheet full = new Spreadsheet(Rows, Columns, columnar);
+                for (Map.Entry<Long, String> entry : formulas.entrySet()) {
+                    full.stageFormula(CellKey.row(entry.getKey()), CellKey.column(entry.getKey()),
+                            entry.getValue());
+                }
+                full.recalculateAll();
+
+                String where = (columnar ? "columnar" : "default") + " seed " + seed;
+                assertSameCells(full, spreadsheet, where);
+            }
+        }
+    }
+
+    @Test
+    void circularReferencesAreFlaggedAndCleared() {
+        Spreadsheet spreadsheet = new Spreadsheet(10, 10);
+        spreadsheet.setCellFormula(0, 0, "B1+1");
+        spreadsheet.setCellFormula(0, 1, "C1+1");
+        spreadsheet.setCellFormula(0, 3, "A1*2");
+        assertFalse(spreadsheet.findCell(0, 0).isCircular());
+
+        // Closing the loop flags the loop and the cells that read it
+        spreadsheet.setCellFormula(0, 2, "A1");
+        for (int col = 0; col <= 3; col++) {
+            assertTrue(spreadsheet.findCell(0, col).isCircular(), "column " + col);
+            assertEquals("ERROR: CIRCULAR", spreadsheet.getCellText(0, col));
+        }
+        spreadsheet.setCellFormula(5, 5, "SUM(A1:C1)");
+        assertTrue(spreadsheet.findCell(5, 5).isCircular());
+
+        // Breaking it clears every flag and brings the values back
+        spreadsheet.setCellFormula(0, 2, "5");
+        for (int col = 0; col <= 3; col++) {
+            assertFalse(spreadsheet.findCell(0, col).isCircular(), "column " + col);
+        }
+        assertFalse(spreadsheet.findCell(5, 5).isCircular());
+        assertEquals(7, spreadsheet.getCellValue(0, 0));
+        assertEquals(6, spreadsheet.getCellValue(0, 1));
+        assertEquals(14, spreadsheet.getCellValue(0, 3));
+        assertEquals(18, spreadsheet.getCellValue(5, 5));
+    }
+
+    @Test
+    void rangeCoveringItsOwnCellIsCircular() {
+        Spreadsheet spreadsheet = new Spreadsheet(10, 10);
+        spreadsheet.setCellFormula(2, 0, "SUM(A1:A5)");
+        assertTrue(spreadsheet.findCell(2, 0).isCircular());
+
+        spreadsheet.setCellFormula(2, 0, "SUM(A4:A5)");
+        assertFalse(spreadsheet.findCell(2, 0).isCircular());
+    }
+
+    @Test
+    void batchRecalculatesOnceWhenCommitted() {
+        Spreadsheet spreadsheet = new Spreadsheet(10, 10);
+        spreadsheet.setCellFormula(0, 0, "1");
+        spreadsheet.setCellFormula(0, 1, "A1+A2");
+        spreadsheet.setCellFormula(0, 2, "B1*2");
+        List<CellChangeEvent> events = new ArrayList<CellChangeEvent>();
+        spreadsheet.addSpreadsheetListener(events::add);
+
+        spreadsheet.beginBatch();
+        spreadsheet.setCellFormula(0, 0, "10");
+        spreadsheet.beginBatch();
+        spreadsheet.setCellFormula(1, 0, "20");
+        spreadsheet.commitBatch();
+        // Only the outermost commit recalculates
+        assertEquals(1, spreadsheet.getCellValue(0, 1));
+        assertTrue(events.isEmpty());
+        spreadsheet.setCellValue(2, 0, "3");
+        spreadsheet.commitBatch();
+
+        assertEquals(30, spreadsheet.getCellValue(0, 1));
+        assertEquals(60, spreadsheet.getCellValue(0, 2));
+        assertEquals(1, events.size());
+        CellChangeEvent event = events.get(0);
+        assertEquals(5, event.getCount());
+        assertFalse(event.isAllCells());
+    }
+
+    @Test
+    void abortPutsBackTheCellsEditedInTheBatch() throws InterruptedException {
+        for (boolean columnar : new boolean[] { false, true }) {
+            Spreadsheet spreadsheet = new Spreadsheet(10, 10, columnar);
+            spreadsheet.setCellFormula(0, 0, "4");
+            spreadsheet.setCellFormula(1, 0, "A1*2");
+            spreadsheet.setCellFormula(2, 0, "1$");
+            spreadsheet.setCellFormula(0, 1, "SUM(A1:A3)");
+            List<CellChangeEvent> events = new ArrayList<CellChangeEvent>();
+            spreadsheet.addSpreadsheetListener(events::add);
+
+            spreadsheet.beginBatch();
+            try {
+                spreadsheet.setCellFormula(0, 0, "100");
+                spreadsheet.setCellFormula(1, 0, "7");
+                spreadsheet.setCellFormula(1, 0, "8");
+                spreadsheet.setCellFormula(2, 0, "A1");
+                spreadsheet.setCellFormula(5, 5, "B1+1");
+                spreadsheet.setCellValue(6, 6, "9");
+                throw new IllegalStateException("caller failed");
+            } catch (IllegalStateException e) {
+                spreadsheet.abortBatch();
+            }
+
+            String where = columnar ? "columnar" : "default";
+            assertEquals("4", spreadsheet.getCellFormula(0, 0), where);
+            assertEquals("A1*2", spreadsheet.getCellFormula(1, 0), where);
+            assertEquals(8, spreadsheet.getCellValue(1, 0), where);
+            assertEquals("ERROR: 1$", spreadsheet.getCellFormula(2, 0), where);
+            assertEquals(12, spreadsheet.getCellValue(0, 1), where);
+            assertEquals("", spreadsheet.getCellFormula(5, 5), where);
+            assertEquals(0, spreadsheet.getCellValue(6, 6), where);
+            assertEquals(1, events.size(), where);
+
+            // The lock is released, so other threads can edit again
+            Thread other = new Thread(() -> spreadsheet.setCellFormula(0, 0, "5"));
+            other.start();
+            other.join(10000);
+            assertFalse(other.isAlive(), where);
+            assertEquals(15, spreadsheet.getCellValue(0, 1), where);
+        }
+    }
+
+    @Test
+    void parallelRecalculationMatchesSequential() {
+        int rows = 2000;
+        int columns = 5;
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            for (boolean columnar : new boolean[] { false, true }) {
+                Spreadsheet sequential = new Spreadsheet(rows, columns, columnar);
+                Spreadsheet parallel = new Spreadsheet(rows, columns, columnar);
+                parallel.setRecalculationPool(pool);
+                // Each column reads the one before it, so every column after
+                // the first is a wave of thousands of cells
+                Random random = new Random(5);
+                sequential.beginBatch();
+                parallel.beginBatch();
+                for (int row = 0; row < rows; row++) {
+                    for (int col = 0; col < columns; col++) {
+                        String formula = col == 0 ? Integer.toString(random.nextInt(100))
+                                : name(random.nextInt(rows), col - 1) + "*2-" + name(row, col - 1);
+                        sequential.setCellFormula(row, col, formula);
+                        parallel.setCellFormula(row, col, formula);
+                    }
+                }
+                sequential.commitBatch();
+                parallel.commitBatch();
+                String where = columnar ? "columnar" : "default";
+                assertSameCells(sequential, parallel, where);
+
+                // Editing the first column recalculates every wave again,
+                // and a loop through it marks thousands of cells circular
+                for (String formula : new String[] { "7", "E1", "-3" }) {
+                    sequential.setCellFormula(0, 0, formula);
+                    parallel.setCellFormula(0, 0, formula);
+                    assertSameCells(sequential, parallel, where + " after " + formula);
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void commitWithoutBatchFails() {
+        Spreadsheet spreadsheet = new Spreadsheet(10, 10);
+        assertThrows(IllegalStateException.class, spreadsheet::commitBatch);
+        assertThrows(IllegalStateException.class, spreadsheet::abortBatch);
+    }
+
+    /**
+     * Makes up a formula over the test sheet: mostly numbers, references and
+     * ranges, with the odd error
+     */
+    static String randomFormula(Random random) {
+        switch (random.nextInt(8)) {
+            case 0:
+            case 1:
+            case 2:
+                return Integer.toString(random.nextInt(200) - 100);
+            case 3:
+                return randomReference(random) + "+" + random.nextInt(9);
+            case 4:
+                return randomReference(random) + "*" + randomReference(random) + "-3";
+            case 5: {
+                String[] functions = { "SUM", "AVG", "MIN", "MAX", "COUNT" };
+                return functions[random.nextInt(functions.length)]
+                        + "(" + randomReference(random) + ":" + randomReference(random) + ")";
+            }
+            case 6:
+                return "";
+            default:
+                return "1+";
+        }
+    }
+
+    private static String randomReference(Random random) {
+        return name(random.nextInt(Rows), random.nextInt(Columns));
+    }
+
+    private static String name(int row, int col) {
+        return "" + (char) ('A' + col) + (row + 1);
+    }
+
+    /**
+     * Checks that two sheets show the same formula, value and text in every
+     * cell
+     */
+    static void assertSameCells(Spreadsheet expected, Spreadsheet actual, String where) {
+        for (int row = 0; row < expected.getNumberOfRows(); row++) {
+            for (int col = 0; col < expected.getNumberOfColumns(); col++) {
+                String cell = where + " at " + row + "," + col;
+                assertEquals(expected.getCellFormula(row, col), actual.getCellFormula(row, col), cell);
+                assertEquals(expected.getCellValue(row, col), actual.getCellValue(row, col), cell);
+                assertEquals(expected.getCellText(row, col), actual.getCellText(row, col), cell);
+            }
+        }
+    }
+}